@@ -0,0 +1,67 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Order of the uploads of a sink that is catching up: the newest measure is uploaded ahead of the backlog,
+ * the backlog follows in order of time, at most one upload per interval.
+ * <p/>
+ * A measure uploaded ahead does not move the previous timestep of the sink, so the checkpoint only covers
+ * the backlog that has been uploaded. When the backlog reaches the measure, it is skipped and the previous
+ * timestep moves past it.
+ * <p/>
+ * The backlog is not paced beyond the deadline of the run: what is left is uploaded by the next run.
+ */
+class Backfill {
+
+    private final Set<Long> uploadedAhead = new HashSet<>();
+    private long newestAhead = Long.MIN_VALUE;
+    private long intervalMillis;
+    private long nextUpload;
+
+    /**
+     * @param intervalMillis minimum time between two backlog uploads, 0 for no limit.
+     */
+    synchronized void setInterval(long intervalMillis) {
+        if (intervalMillis < 0) throw new IllegalArgumentException("Backfill interval must not be negative: " + intervalMillis);
+        this.intervalMillis = intervalMillis;
+    }
+
+    synchronized void uploadedAhead(long timestep) {
+        uploadedAhead.add(timestep);
+        newestAhead = Math.max(newestAhead, timestep);
+    }
+
+    /**
+     * @return true if the measure has been uploaded ahead, after which it is no longer remembered.
+     */
+    synchronized boolean takeUploadedAhead(long timestep) {
+        return uploadedAhead.remove(timestep);
+    }
+
+    /**
+     * Wait before uploading a measure of the backlog: a measure older than the newest one uploaded ahead.
+     *
+     * @return false if the wait would not end before the deadline, the measure is then not to be uploaded.
+     */
+    boolean pace(long timestep, Deadline deadline) throws InterruptedIOException {
+        long wait;
+        synchronized (this) {
+            if (intervalMillis == 0 || timestep >= newestAhead) return true;
+            long now = System.currentTimeMillis();
+            wait = nextUpload - now;
+            if (wait >= deadline.remainingMillis()) return false;
+            nextUpload = Math.max(now, nextUpload) + intervalMillis;
+        }
+        if (wait <= 0) return true;
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload the backlog");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,240 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the timestep of the last upload per key, e.g. per WOW site.
+ * <p/>
+ * Every key has its own file in the checkpoint directory, so stations advance their checkpoints independently.
+ * A checkpoint is written to a temporary file and moved over the old one, so after a crash either the old or
+ * the new value is found. Checkpoints only move forward, also when several processes advance the same key:
+ * the read-compare-write is guarded by a lock file per key.
+ * <p/>
+ * Every file is forced to disk before it is moved over the old one, so a crash never leaves an empty or
+ * truncated checkpoint. With syncEveryWrite the directory is forced to disk on every write as well; without it,
+ * the moves are forced to disk together by {@link #flush()}.
+ * <p/>
+ * Next to the checkpoint, the periods that have been uploaded are stored per key, to find the gaps in the uploads,
+ * and the derived rainfall per station, so the next run continues from it.
+ */
+public class CheckpointStore {
+
+    private static final Logger logger = LogManager.getLogger(CheckpointStore.class);
+
+    private static final String FILE_PREFIX = "checkpoint-";
+    private static final String FILE_POSTFIX = ".timestep";
+    private static final String COVERAGE_PREFIX = "coverage-";
+    private static final String COVERAGE_POSTFIX = ".ranges";
+    private static final String METRICS_PREFIX = "metrics-";
+    private static final String METRICS_POSTFIX = ".derived";
+
+    private final Path directory;
+    private final boolean syncEveryWrite;
+    private final ConcurrentHashMap<String, Object> keyLocks = new ConcurrentHashMap<>();
+    // true if files have been moved since the directory was last forced to disk.
+    private boolean unsynced;
+
+    public CheckpointStore(String directory, boolean syncEveryWrite) {
+        if (directory == null || directory.isEmpty())
+            throw new IllegalArgumentException("Checkpoint location is empty");
+        this.directory = Path.of(directory);
+        if (!Files.isDirectory(this.directory))
+            throw new IllegalArgumentException("Checkpoint location '" + directory + "' is not a directory");
+        this.syncEveryWrite = syncEveryWrite;
+    }
+
+    /**
+     * @return the stored timestep of the key, or defaultValue if there is none.
+     */
+    public long read(String key, long defaultValue) {
+        Path file = file(key);
+        try {
+            String value = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            return Long.parseLong(value);
+        } catch (NoSuchFileException e) {
+            return defaultValue;
+        } catch (IOException | NumberFormatException e) {
+            logger.error("Cannot read checkpoint {}, using {}: measures uploaded before may be uploaded again", file, defaultValue, e);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Store the timestep of the key if it is later than the stored one.
+     *
+     * @return the stored timestep after the call.
+     */
+    public long advance(String key, long timestep) {
+        Object keyLock = keyLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (keyLock) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile(key), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released when the channel is closed.
+                lockChannel.lock();
+                long current = read(key, Long.MIN_VALUE);
+                if (timestep <= current) {
+                    return current;
+                }
+                write(file(key), timestep + "\n");
+                return timestep;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write checkpoint of " + key, e);
+            }
+        }
+    }
+
+    /**
+     * @return the uploaded periods of the key, sorted; empty if none have been stored.
+     */
+    public List<TimeRange> readCoverage(String key) {
+        Path file = coverageFile(key);
+        List<TimeRange> ranges = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length == 2) {
+                    ranges.add(new TimeRange(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return ranges;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Cannot read uploaded periods {}, starting again", file);
+            ranges.clear();
+        }
+        return ranges;
+    }
+
+    /**
+     * Add an uploaded period of the key. Periods that end before retainAfter are forgotten.
+     */
+    public void addCoverage(String key, TimeRange range, long retainAfter) {
+        Object keyLock = keyLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (keyLock) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile(key), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released when the channel is closed.
+                lockChannel.lock();
+                List<TimeRange> ranges = new ArrayList<>(readCoverage(key));
+                ranges.add(range);
+                StringBuilder content = new StringBuilder();
+                for (TimeRange merged : GapDetector.merge(ranges, 0)) {
+                    if (merged.getEnd() < retainAfter) continue;
+                    content.append(merged.getBegin()).append(' ').append(merged.getEnd()).append('\n');
+                }
+                write(coverageFile(key), content.toString());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write uploaded periods of " + key, e);
+            }
+        }
+    }
+
+    /**
+     * @return the derived metrics of the key, or null if none have been stored or they cannot be read.
+     */
+    public DerivedMetrics readDerivedMetrics(String key) {
+        Path file = metricsFile(key);
+        try {
+            return DerivedMetrics.parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot read derived metrics {}, starting again", file);
+            return null;
+        }
+    }
+
+    public void writeDerivedMetrics(String key, DerivedMetrics metrics) {
+        Object keyLock = keyLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (keyLock) {
+            try {
+                write(metricsFile(key), String.join("\n", metrics.format()) + "\n");
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write derived metrics of " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Force the checkpoints written since the last flush to disk, with the directory that holds them.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (!unsynced) return;
+            unsynced = false;
+        }
+        try {
+            force(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot flush checkpoints in " + directory, e);
+        }
+    }
+
+    private void write(Path file, String content) throws IOException {
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // the content must be on disk before the move, otherwise a crash can leave an empty file.
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (syncEveryWrite) {
+            force(directory);
+        } else {
+            synchronized (this) {
+                unsynced = true;
+            }
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on every platform; the file itself has been written anyway.
+            if (!Files.isDirectory(path)) throw e;
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(FILE_PREFIX + fileName(key) + FILE_POSTFIX);
+    }
+
+    private Path coverageFile(String key) {
+        return directory.resolve(COVERAGE_PREFIX + fileName(key) + COVERAGE_POSTFIX);
+    }
+
+    private Path metricsFile(String key) {
+        return directory.resolve(METRICS_PREFIX + fileName(key) + METRICS_POSTFIX);
+    }
+
+    private Path lockFile(String key) {
+        return directory.resolve(FILE_PREFIX + fileName(key) + ".lock");
+    }
+
+    private static String fileName(String key) {
+        if (key == null || key.isEmpty())
+            throw new IllegalArgumentException("Checkpoint key is empty");
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,77 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Stops calling an endpoint for a while after several failures in a row, so an outage fails fast
+ * instead of waiting for the timeout of every request.
+ * <p/>
+ * After the open period one request is let through; if it succeeds the endpoint is used again,
+ * if it fails the breaker opens again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LogManager.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 60L * 1000L;
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private int failures;
+    private long openUntil;
+    private boolean trial;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("Failure threshold must be positive: " + failureThreshold);
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Call before a request.
+     *
+     * @throws IOException if the endpoint is not called because of earlier failures.
+     */
+    public synchronized void acquire() throws IOException {
+        if (failures < failureThreshold) return;
+        long now = System.currentTimeMillis();
+        if (now < openUntil || trial) {
+            throw new IOException("Circuit breaker of " + name + " is open after " + failures + " failures");
+        }
+        // half open: let one request through to find out whether the endpoint is back.
+        trial = true;
+    }
+
+    public synchronized void success() {
+        if (failures >= failureThreshold) {
+            logger.info("Circuit breaker of {} closed", name);
+        }
+        failures = 0;
+        trial = false;
+    }
+
+    public synchronized void failure() {
+        failures++;
+        if (failures >= failureThreshold) {
+            if (failures == failureThreshold || trial) {
+                logger.warn("Circuit breaker of {} opened for {} ms after {} failures", name, openMillis, failures);
+            }
+            openUntil = System.currentTimeMillis() + openMillis;
+            trial = false;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return failures >= failureThreshold && System.currentTimeMillis() < openUntil;
+    }
+}
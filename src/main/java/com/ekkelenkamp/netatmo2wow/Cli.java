@@ -1,20 +1,32 @@
 
 package com.ekkelenkamp.netatmo2wow;
 
-import com.ekkelenkamp.netatmo2wow.model.Measures;
 import org.apache.commons.cli.*;
 
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
 import java.util.prefs.Preferences;
 
 public class Cli {
 
     static final org.apache.logging.log4j.Logger logger = org.apache.logging.log4j.LogManager.getLogger(Cli.class);
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    private static final int DEFAULT_BUFFER_HOURS = 24;
+    private static final int DEFAULT_BACKFILL_RATE = 60;
     private String[] args = null;
     private Options options = new Options();
     private CommandLineParser parser = new DefaultParser();
     private CommandLine cmd = null;
-    private NetatmoHttpClient netatmoHttpClient = new NetatmoHttpClientImpl();
+    private NetatmoHttpClientImpl netatmoHttpClient = new NetatmoHttpClientImpl();
 
     public Cli(String[] args) {
 
@@ -43,9 +55,110 @@ public class Cli {
         option.setRequired(false);
         options.addOption(option);
 
+        option = new Option(null, "wu_id", true, "Station id at Weather Underground to upload data to as well.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "wu_password", true, "Station key or password of the Weather Underground station.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "pws_id", true, "Station id at PWSWeather to upload data to as well.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "pws_password", true, "API key or password of the PWSWeather station.");
+        option.setRequired(false);
+        options.addOption(option);
+
         option = new Option("l", "token_location", true, "Location to read and write access and refresh tokens");
         option.setRequired(false);
         options.addOption(option);
+
+        option = new Option(null, "app", true, "Another Netatmo application with access to the station: <client id>,<client secret>,<token location>. "
+                + "Can be given several times; the requests are spread over all applications to stay within the Netatmo limits.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "checkpoint_location", true, "Directory to store the last uploaded timestep per WOW site. Default: the token location");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "checkpoint_sync", false, "Force every checkpoint write to disk immediately instead of once at the end of the run.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "lease_location", true, "Directory shared by all nodes that run netatmo2wow. When set, every station is processed by one node only and the checkpoints are stored in this directory.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "node_id", true, "Name of this node for the station leases. Default: the host name");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "lease_ttl", true, "Lifetime in seconds of station leases; must be longer than the interval between runs. Default: " + StationLeases.DEFAULT_TTL_MILLIS / 1000);
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "slice", true, "Length in seconds of the time slices that are downloaded and uploaded one after the other. Default: " + MeasuresPipeline.DEFAULT_SLICE_SECONDS);
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "interval", true, "Aggregate the measurements onto intervals of this number of seconds (e.g. 600 or 900) before uploading. Default: upload every measurement.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "deadline", true, "Maximum duration of the run in seconds, e.g. a little less than the interval between runs. Every request gets the time that is left as timeout. Default: no limit");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "hedge", false, "Send a duplicate of a Netatmo measurement request that takes longer than 95% of the earlier ones, and use the first response.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "fill_gaps", true, "After the run, download and upload the periods of the last <days> days that were not uploaded, e.g. because runs were missed. At most " + GapDetector.RETENTION_DAYS + " days.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "newest_first", false, "When catching up, upload the newest measurement first and then the older ones, at most --backfill_rate per minute.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "backfill_rate", true, "With --newest_first, the maximum number of older measurements uploaded per minute per target, 0 for no limit. Default: " + DEFAULT_BACKFILL_RATE);
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "daemon", true, "Keep running and start a run every <seconds>, instead of running once. The deadline of a run is the interval, unless --deadline is given.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "buffer_hours", true, "Number of hours of observations kept in memory in daemon mode. Default: " + DEFAULT_BUFFER_HOURS);
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "http_port", true, "In daemon mode, serve the observations kept in memory as JSON on this port: /stations, /stations/<id>/latest and /stations/<id>/range?from=<ms>&to=<ms>.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "http_bind", true, "Address the http server of --http_port listens on, e.g. 0.0.0.0 for all interfaces. Default: the loopback address, so only this machine can connect.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "export", true, "Write the downloaded measurements to this compressed columnar file as well. Without upload targets, only export.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "read_export", true, "Print the measurements of an export file as CSV, for the timeperiod if given, and exit.");
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "netatmo_url", true, "Base url of the Netatmo API. Default: " + NetatmoDownload.URL_BASE);
+        option.setRequired(false);
+        options.addOption(option);
+
+        option = new Option(null, "wow_url", true, "Url of the WOW automatic reading upload. Default: " + WowUpload.WOW_URL);
+        option.setRequired(false);
+        options.addOption(option);
     }
 
     public void parse() {
@@ -69,36 +182,369 @@ public class Cli {
     }
 
     private void run() {
-        long previousTimestepRead = 0;
+        if (cmd.hasOption("read_export")) {
+            printExport(cmd.getOptionValue("read_export"));
+            return;
+        }
+        String siteId = cmd.getOptionValue("i");
+        if (cmd.hasOption("wu_id") != cmd.hasOption("wu_password")) throw new IllegalArgumentException("--wu_id and --wu_password must be given together");
+        if (cmd.hasOption("pws_id") != cmd.hasOption("pws_password")) throw new IllegalArgumentException("--pws_id and --pws_password must be given together");
+        // the station is identified by its first upload target.
+        String stationKey = siteId != null ? siteId : cmd.getOptionValue("wu_id", cmd.getOptionValue("pws_id"));
+        StationLeases leases = null;
+        String defaultCheckpointLocation = cmd.getOptionValue("l");
+        if (cmd.hasOption("lease_location")) {
+            if (stationKey == null) throw new IllegalArgumentException("--lease_location needs an upload target to identify the station: -siteid, --wu_id or --pws_id");
+            long ttl = cmd.hasOption("lease_ttl") ? Long.parseLong(cmd.getOptionValue("lease_ttl")) * 1000 : StationLeases.DEFAULT_TTL_MILLIS;
+            leases = new StationLeases(new FileLeaseBackend(cmd.getOptionValue("lease_location")), cmd.getOptionValue("node_id", hostName()), ttl);
+            // the checkpoint moves with the lease to the next node.
+            defaultCheckpointLocation = cmd.getOptionValue("lease_location");
+        }
+        CredentialPool credentials = createCredentialPool();
+        netatmoHttpClient.setHedging(cmd.hasOption("hedge"));
+        // a duplicate request counts for the Netatmo request limit like any other request.
+        netatmoHttpClient.setHedgePermit(credentials::recordDuplicate);
+        CheckpointStore checkpoints = new CheckpointStore(cmd.getOptionValue("checkpoint_location", defaultCheckpointLocation), cmd.hasOption("checkpoint_sync"));
 
-        Preferences prefs = Preferences.userNodeForPackage(Cli.class);
-        // Preference key name
-        final String PREF_NAME = "last_timestep";
-        String propertyValue = prefs.get(PREF_NAME, "0");
-        previousTimestepRead = Long.parseLong(propertyValue);
-
-        logger.debug("Previous time was: {}", new java.util.Date(previousTimestepRead));
-        NetatmoTokenFiles netatmoTokenFiles = new NetatmoTokenFiles(cmd.getOptionValue("l"));
-        NetatmoDownload download = new NetatmoDownload(netatmoHttpClient, netatmoTokenFiles);
+        NetatmoDownload download = new NetatmoDownload(netatmoHttpClient, credentials, cmd.getOptionValue("netatmo_url", NetatmoDownload.URL_BASE));
+        if (cmd.hasOption("daemon")) {
+            runDaemon(stationKey, leases, download, checkpoints);
+        } else {
+            Deadline deadline = cmd.hasOption("deadline") ? Deadline.after(Long.parseLong(cmd.getOptionValue("deadline")) * 1000) : Deadline.unlimited();
+            cycle(stationKey, leases, download, checkpoints, deadline, cmd.getOptionValue("t"), null);
+        }
+    }
+
+    /**
+     * Run every interval until the process is stopped, keeping the latest observations in memory and
+     * optionally serving them over http.
+     */
+    private void runDaemon(String stationKey, StationLeases leases, NetatmoDownload download, CheckpointStore checkpoints) {
+        if (cmd.hasOption("export")) throw new IllegalArgumentException("--export cannot be combined with --daemon");
+        long interval = Long.parseLong(cmd.getOptionValue("daemon"));
+        long deadlineSeconds = Long.parseLong(cmd.getOptionValue("deadline", "" + interval));
+        int bufferHours = Integer.parseInt(cmd.getOptionValue("buffer_hours", "" + DEFAULT_BUFFER_HOURS));
+        ObservationRing ring = ObservationRing.ofHours(bufferHours);
+        ObservationServer server = null;
+        if (cmd.hasOption("http_port")) {
+            if (stationKey == null) throw new IllegalArgumentException("--http_port needs an upload target to identify the station: -siteid, --wu_id or --pws_id");
+            try {
+                InetAddress bindAddress = cmd.hasOption("http_bind") ? InetAddress.getByName(cmd.getOptionValue("http_bind")) : InetAddress.getLoopbackAddress();
+                server = new ObservationServer(bindAddress, Integer.parseInt(cmd.getOptionValue("http_port")));
+            } catch (java.io.IOException e) {
+                throw new RuntimeException("Cannot start the http server", e);
+            }
+            server.addStation(stationKey, ring);
+        }
+        // the first run fills the buffer.
+        String firstTimespan = "" + Math.max(Long.parseLong(cmd.getOptionValue("t")), bufferHours * 3600L);
+        AtomicBoolean first = new AtomicBoolean(true);
+        AtomicReference<Throwable> fatal = new AtomicReference<>();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                String timespan = first.getAndSet(false) ? firstTimespan : cmd.getOptionValue("t");
+                cycle(stationKey, leases, download, checkpoints, Deadline.after(deadlineSeconds * 1000), timespan, ring);
+            } catch (RuntimeException e) {
+                // the next run continues after the checkpoints.
+                logger.warn("Run failed: {}", e.toString());
+            } catch (Throwable e) {
+                // e.g. out of memory: the schedule would stop silently, so the daemon stops instead.
+                logger.error("Run failed, stopping the daemon", e);
+                fatal.set(e);
+                scheduler.shutdown();
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+        ObservationServer started = server;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.shutdownNow();
+            if (started != null) started.close();
+        }));
+        try {
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fatal.get() != null) {
+            if (started != null) started.close();
+            throw new IllegalStateException("Daemon stopped after a failed run", fatal.get());
+        }
+    }
+
+    /**
+     * One run for the station: the measures of the timespan, followed by the gaps if requested.
+     */
+    private void cycle(String stationKey, StationLeases leases, NetatmoDownload download, CheckpointStore checkpoints, Deadline deadline, String timespan, ObservationRing ring) {
+        StationLeases.Lease lease = null;
+        if (leases != null) {
+            lease = leases.acquire(stationKey);
+            if (lease == null) {
+                return;
+            }
+            // another node processes the station now: stop uploading.
+            lease.onLost(() -> deadline.stop("lease of station " + stationKey + " lost"));
+        }
+        netatmoHttpClient.setDeadline(deadline);
+        download.setDeadline(deadline);
+        try {
+            long runBegin = System.currentTimeMillis() - Long.parseLong(timespan) * 1000;
+            run(stationKey, download, checkpoints, deadline, timespan, runBegin, ring);
+            if (cmd.hasOption("fill_gaps")) {
+                long days = Math.min(Long.parseLong(cmd.getOptionValue("fill_gaps")), GapDetector.RETENTION_DAYS);
+                fillGaps(download, checkpoints, deadline, runBegin - days * DAY, runBegin);
+            }
+        } finally {
+            download.saveUsage();
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private void run(String stationKey, NetatmoDownload download, CheckpointStore checkpoints, Deadline deadline, String timespan, long runBegin, ObservationRing ring) {
+        MeasuresPipeline pipeline = createPipeline(download, createSinks(deadline, key -> readCheckpoint(checkpoints, key)));
+        // the measures up to the checkpoints are skipped, their coverage was stored by earlier runs.
+        Map<String, Long> started = new HashMap<>();
+        for (ObservationSink sink : pipeline.getSinks()) {
+            started.put(sink.getName(), sink.getPreviousTimeStep());
+        }
+        pipeline.setBuffer(ring);
+        pipeline.setNewestFirst(cmd.hasOption("newest_first"));
+        // without upload target there is no station key to store the derived metrics under.
+        pipeline.setDerivedMetrics(stationKey != null ? checkpoints.readDerivedMetrics(stationKey) : new DerivedMetrics());
+        MeasuresExport export = null;
+        boolean completed = false;
         try 
         {
-            List<Measures> measures = download.downloadMeasures(cmd.getOptionValue("c"), cmd.getOptionValue("s"), cmd.getOptionValue("t"));
-            logger.info("Number of Netatmo measurements read: {}", measures.size());
-            if (!measures.isEmpty()) 
-            {
-                logger.debug("First measurement: {}", measures.get(0));
-                logger.debug("Last measurement: {}", measures.get(measures.size() - 1));
-            }
-            WowUpload wowClient = new WowUpload(previousTimestepRead);
-            long lastTimestepRed = wowClient.upload(measures, cmd.getOptionValue("i"), Integer.parseInt(cmd.getOptionValue("a")));
-            prefs.put(PREF_NAME, "" + lastTimestepRed);
+            if (cmd.hasOption("export")) {
+                export = new MeasuresExport(java.nio.file.Path.of(cmd.getOptionValue("export")));
+                pipeline.setExport(export);
+            }
+            pipeline.run(cmd.getOptionValue("c"), cmd.getOptionValue("s"), timespan);
+            completed = true;
+            logger.info("Netatmo response bytes received: {}, decompressed: {}", netatmoHttpClient.getReceivedBytes(), netatmoHttpClient.getDecompressedBytes());
+            if (cmd.hasOption("hedge")) {
+                logger.info("Duplicate Netatmo requests: {}", netatmoHttpClient.getHedgedRequests());
+            }
         } 
         catch (Exception e) 
         {
-        	logger.info(e.getStackTrace());
             throw new RuntimeException(e);
         }
+        finally
+        {
+            if (export != null) {
+                closeExport(export);
+            }
+            // measures uploaded before a failure are not uploaded again.
+            for (ObservationSink sink : pipeline.getSinks()) {
+                checkpoints.advance(sink.getName(), sink.getPreviousTimeStep());
+            }
+            addCoverage(checkpoints, pipeline, key -> Math.max(runBegin, started.get(key)), completed ? System.currentTimeMillis() : Long.MIN_VALUE);
+            if (stationKey != null && pipeline.getDerivedMetrics() != null) {
+                checkpoints.writeDerivedMetrics(stationKey, pipeline.getDerivedMetrics());
+            }
+            checkpoints.flush();
+        }
+
+    }
+
+    /**
+     * Download and upload the periods between from and to that were not uploaded to one or more targets.
+     * The gaps of all targets are downloaded together; every target only gets the measures in its own gaps.
+     * Stops at the first failure; the next run continues.
+     */
+    private void fillGaps(NetatmoDownload download, CheckpointStore checkpoints, Deadline deadline, long from, long to) {
+        Map<String, List<TimeRange>> gaps = new HashMap<>();
+        List<TimeRange> allGaps = new ArrayList<>();
+        for (ObservationSink sink : createSinks(deadline, key -> 0)) {
+            List<TimeRange> sinkGaps = GapDetector.gaps(checkpoints.readCoverage(sink.getName()), from, to);
+            gaps.put(sink.getName(), sinkGaps);
+            allGaps.addAll(sinkGaps);
+        }
+        for (TimeRange range : GapDetector.merge(allGaps, 0)) {
+            List<ObservationSink> sinks = new ArrayList<>();
+            for (ObservationSink sink : createSinks(deadline, key -> range.getBegin())) {
+                List<TimeRange> sinkGaps = new ArrayList<>();
+                for (TimeRange gap : gaps.get(sink.getName())) {
+                    if (gap.overlaps(range)) {
+                        sinkGaps.add(gap);
+                    }
+                }
+                if (!sinkGaps.isEmpty()) {
+                    sinks.add(new GapFillSink(sink, sinkGaps));
+                }
+            }
+            logger.info("Filling gap {} for {} target(s)", range, sinks.size());
+            MeasuresPipeline pipeline = createPipeline(download, sinks);
+            boolean completed = false;
+            try {
+                // the hour before the gap is downloaded as well, for the rainfall in the last hour.
+                pipeline.run(cmd.getOptionValue("c"), cmd.getOptionValue("s"), range.getBegin() / 1000 - 3600, range.getEnd() / 1000);
+                completed = true;
+            } catch (Exception e) {
+                logger.warn("Filling the gaps stopped: {}", e.toString());
+                return;
+            } finally {
+                addCoverage(checkpoints, pipeline, key -> range.getBegin(), completed ? range.getEnd() : Long.MIN_VALUE);
+                checkpoints.flush();
+            }
+        }
+    }
+
+    private MeasuresPipeline createPipeline(NetatmoDownload download, List<ObservationSink> sinks) {
+        long sliceSeconds = Long.parseLong(cmd.getOptionValue("slice", "" + MeasuresPipeline.DEFAULT_SLICE_SECONDS));
+        MeasuresPipeline pipeline = new MeasuresPipeline(download, sinks, sliceSeconds, 2);
+        if (cmd.hasOption("interval")) {
+            pipeline.setResampler(new Resampler(Long.parseLong(cmd.getOptionValue("interval"))));
+        }
+        return pipeline;
+    }
+
+    /**
+     * Store the period from its begin that every sink uploaded: up to end if the run completed and the sink did not fail,
+     * otherwise up to its last upload; without the periods with measures the target rejected.
+     */
+    static void addCoverage(CheckpointStore checkpoints, MeasuresPipeline pipeline, ToLongFunction<String> begin, long end) {
+        long retainAfter = System.currentTimeMillis() - GapDetector.RETENTION_DAYS * DAY;
+        for (ObservationSink sink : pipeline.getSinks()) {
+            long covered = pipeline.isSuccessful(sink) ? Math.max(end, sink.getPreviousTimeStep()) : sink.getPreviousTimeStep();
+            long position = begin.applyAsLong(sink.getName());
+            for (TimeRange rejected : GapDetector.merge(sink.getRejected(), 0)) {
+                if (rejected.getBegin() > position && position < covered) {
+                    checkpoints.addCoverage(sink.getName(), new TimeRange(position, Math.min(rejected.getBegin(), covered)), retainAfter);
+                }
+                position = Math.max(position, rejected.getEnd());
+            }
+            if (covered > position) {
+                checkpoints.addCoverage(sink.getName(), new TimeRange(position, covered), retainAfter);
+            }
+        }
+    }
+
+    private static void closeExport(MeasuresExport export) {
+        try {
+            export.close();
+            logger.info("Number of measurements exported: {}", export.getNumberOfRows());
+        } catch (java.io.IOException e) {
+            throw new RuntimeException("Cannot write export", e);
+        }
+    }
+
+    private void printExport(String file) {
+        long dateEnd = Long.MAX_VALUE;
+        long dateBegin = cmd.hasOption("t") ? System.currentTimeMillis() - Long.parseLong(cmd.getOptionValue("t")) * 1000 : Long.MIN_VALUE;
+        java.io.PrintStream out = System.out;
+        out.println("dateutc,temperature,humidity,pressure,rain,rainLastHour,rainAccumulated,windStrength,windAngle,windGustStrength,windGustAngle");
+        StringBuilder line = new StringBuilder(128);
+        try {
+            new MeasuresExportReader(java.nio.file.Path.of(file)).read(dateBegin, dateEnd, observation -> {
+                line.setLength(0);
+                line.append(java.time.Instant.ofEpochMilli(observation.getTimestamp()));
+                appendCsv(line, observation.getTemperature());
+                appendCsv(line, observation.getHumidity());
+                appendCsv(line, observation.getPressure());
+                appendCsv(line, observation.getRain());
+                appendCsv(line, observation.getRainLastHour());
+                appendCsv(line, observation.getRainAccumulated());
+                appendCsv(line, observation.getWindStrength());
+                appendCsv(line, observation.getWindAngle());
+                appendCsv(line, observation.getWindGustStrength());
+                appendCsv(line, observation.getWindGustAngle());
+                out.println(line);
+            });
+        } catch (java.io.IOException e) {
+            throw new RuntimeException("Cannot read export " + file, e);
+        }
+        out.flush();
+    }
+
+    private static void appendCsv(StringBuilder line, double value) {
+        line.append(',');
+        if (!Double.isNaN(value)) line.append(value);
+    }
 
+    /**
+     * The Netatmo application given with -c, -s and -l, followed by the applications given with --app.
+     */
+    private CredentialPool createCredentialPool() {
+        List<NetatmoCredentials> credentials = new ArrayList<>();
+        credentials.add(new NetatmoCredentials(cmd.getOptionValue("c"), cmd.getOptionValue("s"), new NetatmoTokenFiles(cmd.getOptionValue("l"))));
+        String[] apps = cmd.getOptionValues("app");
+        if (apps != null) {
+            for (String app : apps) {
+                String[] fields = app.split(",", 3);
+                if (fields.length != 3) throw new IllegalArgumentException("Expected <client id>,<client secret>,<token location>: " + app);
+                credentials.add(new NetatmoCredentials(fields[0], fields[1], new NetatmoTokenFiles(fields[2])));
+            }
+        }
+        return new CredentialPool(credentials);
+    }
+
+    /**
+     * The upload targets given on the command line, each continuing after its own checkpoint.
+     */
+    private List<ObservationSink> createSinks(Deadline deadline, ToLongFunction<String> previousTimeStep) {
+        List<ObservationSink> sinks = new ArrayList<>();
+        int backfillRate = Integer.parseInt(cmd.getOptionValue("backfill_rate", "" + DEFAULT_BACKFILL_RATE));
+        long backfillInterval = backfillRate > 0 ? 60L * 1000L / backfillRate : 0;
+        String siteId = cmd.getOptionValue("i");
+        if (siteId != null) {
+            long previousTimestepRead = previousTimeStep.applyAsLong(siteId);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Previous WOW time was: {}", new java.util.Date(previousTimestepRead));
+            }
+            WowUpload wowUpload = new WowUpload(previousTimestepRead, cmd.getOptionValue("wow_url", WowUpload.WOW_URL), siteId, Integer.parseInt(cmd.getOptionValue("a")));
+            wowUpload.setDeadline(deadline);
+            wowUpload.setBackfillInterval(backfillInterval);
+            sinks.add(wowUpload);
+        }
+        if (cmd.hasOption("wu_id")) {
+            String stationId = cmd.getOptionValue("wu_id");
+            WeatherUndergroundUpload upload = new WeatherUndergroundUpload("wu", WeatherUndergroundUpload.WUNDERGROUND_URL, stationId, cmd.getOptionValue("wu_password"),
+                    previousTimeStep.applyAsLong("wu-" + stationId));
+            upload.setDeadline(deadline);
+            upload.setBackfillInterval(backfillInterval);
+            sinks.add(upload);
+        }
+        if (cmd.hasOption("pws_id")) {
+            String stationId = cmd.getOptionValue("pws_id");
+            WeatherUndergroundUpload upload = new WeatherUndergroundUpload("pws", WeatherUndergroundUpload.PWSWEATHER_URL, stationId, cmd.getOptionValue("pws_password"),
+                    previousTimeStep.applyAsLong("pws-" + stationId));
+            upload.setDeadline(deadline);
+            upload.setBackfillInterval(backfillInterval);
+            sinks.add(upload);
+        }
+        return sinks;
+    }
+
+    /**
+     * The checkpoint of a target. For the WOW site, the timestep of earlier versions is used until it has a checkpoint.
+     */
+    private long readCheckpoint(CheckpointStore checkpoints, String key) {
+        long previousTimestep = checkpoints.read(key, -1);
+        if (previousTimestep < 0) {
+            previousTimestep = key.equals(cmd.getOptionValue("i")) ? readPreferencesTimestep() : 0;
+        }
+        return previousTimestep;
+    }
+
+    private static String hostName() {
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName();
+        } catch (java.net.UnknownHostException e) {
+            String hostName = System.getenv("HOSTNAME");
+            return hostName != null ? hostName : "localhost";
+        }
+    }
+
+    /**
+     * Last uploaded timestep as stored by earlier versions, shared by all stations of the user.
+     * Only used until the first checkpoint of the site has been written.
+     */
+    private static long readPreferencesTimestep() {
+        Preferences prefs = Preferences.userNodeForPackage(Cli.class);
+        return Long.parseLong(prefs.get("last_timestep", "0"));
     }
 }
 
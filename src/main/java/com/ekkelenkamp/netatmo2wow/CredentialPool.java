@@ -0,0 +1,133 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Credential sets of several Netatmo applications that the user has given access to the same station.
+ * <p/>
+ * Every request is made with the credential set that has the most requests left within the Netatmo limits,
+ * so the requests are balanced over the applications. When all credential sets reached a limit,
+ * {@link #next()} waits until one of them may make a request again, but not beyond the deadline of the run.
+ */
+public class CredentialPool {
+
+    private static final Logger logger = LogManager.getLogger(CredentialPool.class);
+
+    private final List<NetatmoCredentials> credentials;
+    private Deadline deadline = Deadline.NONE;
+
+    /**
+     * The requests stored by earlier runs are counted as well.
+     */
+    public CredentialPool(List<NetatmoCredentials> credentials) {
+        if (credentials.isEmpty()) throw new IllegalArgumentException("No Netatmo credentials configured");
+        this.credentials = new ArrayList<>(credentials);
+        long now = System.currentTimeMillis();
+        for (NetatmoCredentials candidate : credentials) {
+            candidate.loadUsage(now);
+        }
+    }
+
+    /**
+     * Do not wait for a request beyond the deadline.
+     */
+    public synchronized void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Store the requests of the last hour of every credential set, for the next run.
+     */
+    public synchronized void saveUsage() {
+        long now = System.currentTimeMillis();
+        for (NetatmoCredentials candidate : credentials) {
+            candidate.saveUsage(now);
+        }
+    }
+
+    /**
+     * Stop using the credential set with the access token for a while, because Netatmo answered that a limit is reached.
+     */
+    public synchronized void backOff(String accessToken) {
+        long now = System.currentTimeMillis();
+        for (NetatmoCredentials candidate : credentials) {
+            if (candidate.getAccessToken().equals(accessToken)) {
+                long until = candidate.backOff(now);
+                logger.warn("Netatmo request limit reached for {}, not using it for {} ms", candidate, until - now);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Count a duplicate of a request made with the access token, if its credential set has a request left now.
+     *
+     * @return false if the duplicate would exceed a limit or the access token is unknown; it is then not to be sent.
+     */
+    public synchronized boolean recordDuplicate(String accessToken) {
+        long now = System.currentTimeMillis();
+        for (NetatmoCredentials candidate : credentials) {
+            if (candidate.getAccessToken().equals(accessToken)) {
+                if (candidate.remaining(now) <= 0) return false;
+                candidate.record(now);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the credential set given first, used to read the devices of the station.
+     */
+    public NetatmoCredentials getPrimary() {
+        return credentials.get(0);
+    }
+
+    public synchronized List<NetatmoCredentials> getCredentials() {
+        return Collections.unmodifiableList(new ArrayList<>(credentials));
+    }
+
+    /**
+     * Stop using a credential set, e.g. because its tokens cannot be refreshed.
+     */
+    public synchronized void remove(NetatmoCredentials removed) {
+        if (credentials.size() == 1) throw new IllegalStateException("Cannot remove the last Netatmo credentials");
+        credentials.remove(removed);
+    }
+
+    /**
+     * Take the credential set with the most requests left and count a request for it.
+     *
+     * @throws IllegalStateException if no credential set may make a request before the deadline.
+     */
+    public synchronized NetatmoCredentials next() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            NetatmoCredentials best = null;
+            int bestRemaining = 0;
+            long availableAt = Long.MAX_VALUE;
+            for (NetatmoCredentials candidate : credentials) {
+                int remaining = candidate.remaining(now);
+                if (remaining > bestRemaining) {
+                    best = candidate;
+                    bestRemaining = remaining;
+                }
+                availableAt = Math.min(availableAt, candidate.availableAt(now));
+            }
+            if (best != null) {
+                best.record(now);
+                return best;
+            }
+            if (availableAt - now >= deadline.remainingMillis()) {
+                throw new IllegalStateException("Netatmo request limit reached for all " + credentials.size() + " applications until after the deadline of the run");
+            }
+            logger.info("Netatmo request limit reached for all {} applications, waiting {} ms", credentials.size(), availableAt - now);
+            wait(Math.max(1, availableAt - now));
+        }
+    }
+}
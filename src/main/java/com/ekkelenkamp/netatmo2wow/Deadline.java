@@ -0,0 +1,67 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Point in time by which a run has to be finished, e.g. before the next run is started by cron.
+ * <p/>
+ * Every request gets the time that is left as timeout, so a hanging request cannot make the run overrun.
+ * A deadline can be ended early, e.g. when the lease of the station is lost, which stops the run at the next request.
+ */
+public final class Deadline {
+
+    /**
+     * No deadline: requests keep their own timeouts.
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long expiresAtMillis;
+    private volatile String stopReason;
+
+    private Deadline(long expiresAtMillis) {
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @return a deadline without time limit that can still be ended with {@link #stop(String)}.
+     */
+    public static Deadline unlimited() {
+        return new Deadline(Long.MAX_VALUE);
+    }
+
+    public static Deadline after(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("Deadline must be in the future: " + millis);
+        return new Deadline(System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * @return the milliseconds left, 0 if the deadline has passed.
+     */
+    public long remainingMillis() {
+        if (stopReason != null) return 0;
+        if (expiresAtMillis == Long.MAX_VALUE) return Long.MAX_VALUE;
+        return Math.max(0, expiresAtMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * @param millis the timeout of a request without deadline.
+     * @return the timeout limited to the time that is left.
+     * @throws SocketTimeoutException if the deadline has passed.
+     */
+    public int timeout(int millis) throws SocketTimeoutException {
+        long remaining = remainingMillis();
+        if (remaining == 0) {
+            String reason = stopReason;
+            throw new SocketTimeoutException(reason != null ? "Run stopped: " + reason : "Deadline of the run has passed");
+        }
+        return (int) Math.min(millis, remaining);
+    }
+
+    /**
+     * End the deadline now: all following requests fail.
+     */
+    public void stop(String reason) {
+        if (this == NONE) throw new UnsupportedOperationException("Deadline.NONE cannot be stopped");
+        stopReason = reason;
+    }
+}
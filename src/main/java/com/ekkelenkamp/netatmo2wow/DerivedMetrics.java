@@ -0,0 +1,209 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rainfall derived from the merged measures, kept up to date one measure at a time:
+ * <ul>
+ * <li>the rain of the last hour, as a sliding window with a running sum.</li>
+ * <li>the rain since midnight, once it is known for the current day.</li>
+ * <li>the timestamp of the last measure added, so the next run continues after it.</li>
+ * </ul>
+ * Adding a measure costs the same however long the period is, so a run only pays for the new measures.
+ * Rain is summed in micrometres, so the running sums do not drift. The days start at midnight in the time zone
+ * of the station.
+ * <p/>
+ * The state is stored next to the checkpoints, see {@link CheckpointStore#writeDerivedMetrics(String, DerivedMetrics)}.
+ */
+public class DerivedMetrics {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+    // micrometres per millimetre.
+    private static final double MICROMETRES = 1000.0;
+    private static final long UNKNOWN_DAY = Long.MIN_VALUE;
+
+    private final ZoneId zone;
+    private long firstTimestamp = Long.MIN_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    // rain of the last hour, oldest first, in a ring buffer.
+    private long[] windowTimestamps = new long[16];
+    private long[] windowRain = new long[16];
+    private int windowFirst;
+    private int windowSize;
+    private long windowSum;
+    private long day = UNKNOWN_DAY;
+    private long daySum;
+
+    public DerivedMetrics() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * @param zone time zone in which the days of the daily rainfall start.
+     */
+    public DerivedMetrics(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @return the timestamp of the last measure added, Long.MIN_VALUE if none.
+     */
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return true if the rain since midnight is known for the day of the last measure.
+     */
+    public synchronized boolean hasDailyRain() {
+        return day != UNKNOWN_DAY;
+    }
+
+    /**
+     * Add the rain in the last hour and, if known, the rain of the day to an observation newer than the last one.
+     * The rain in the last hour is only added once an hour of observations has been added.
+     *
+     * @return the observation with the derived values, or null if it is not newer than the last one and has been ignored.
+     */
+    public synchronized Observation add(Observation observation) {
+        long timestamp = observation.getTimestamp();
+        if (timestamp <= lastTimestamp) return null;
+        if (firstTimestamp == Long.MIN_VALUE) {
+            firstTimestamp = timestamp;
+        }
+        boolean measuredRain = !Double.isNaN(observation.getRain());
+        long rain = measuredRain ? Math.round(observation.getRain() * MICROMETRES) : 0;
+        while (windowSize > 0 && timestamp - windowTimestamps[windowFirst] >= HOUR) {
+            windowSum -= windowRain[windowFirst];
+            windowFirst = (windowFirst + 1) % windowTimestamps.length;
+            windowSize--;
+        }
+        push(timestamp, rain);
+        Observation.Builder derived = observation.toBuilder();
+        if (measuredRain && timestamp - firstTimestamp >= HOUR) {
+            derived.rainLastHour(windowSum / MICROMETRES);
+        }
+        if (day != UNKNOWN_DAY) {
+            long measureDay = day(timestamp);
+            if (measureDay != day) {
+                day = measureDay;
+                daySum = 0;
+            }
+            daySum += rain;
+            derived.rainAccumulated(daySum / MICROMETRES);
+        }
+        lastTimestamp = timestamp;
+        return derived.build();
+    }
+
+    /**
+     * @return true if both timestamps are on the same day in the time zone of the daily rainfall.
+     */
+    public boolean isSameDay(long timestamp, long otherTimestamp) {
+        return day(timestamp) == day(otherTimestamp);
+    }
+
+    /**
+     * Start the daily rainfall from the rain Netatmo reported for the day that starts the period.
+     * Only used if the last measure is on that day as well, so the reported rain includes all measures added.
+     *
+     * @param periodBegin start of the period in milliseconds.
+     * @param rain        rain of the day of periodBegin up to now.
+     */
+    public synchronized void startDailyRain(long periodBegin, double rain) {
+        if (lastTimestamp == Long.MIN_VALUE || day(periodBegin) != day(lastTimestamp)) return;
+        day = day(lastTimestamp);
+        daySum = Math.round(rain * MICROMETRES);
+    }
+
+    /**
+     * @return the state as lines of text, read back by {@link #parse(List)}.
+     */
+    public synchronized List<String> format() {
+        List<String> lines = new ArrayList<>();
+        lines.add("zone " + zone.getId());
+        lines.add("first " + firstTimestamp);
+        lines.add("last " + lastTimestamp);
+        if (day != UNKNOWN_DAY) {
+            lines.add("day " + day + " " + daySum);
+        }
+        for (int i = 0; i < windowSize; i++) {
+            int index = (windowFirst + i) % windowTimestamps.length;
+            lines.add("rain " + windowTimestamps[index] + " " + windowRain[index]);
+        }
+        return lines;
+    }
+
+    /**
+     * State without a time zone, of an earlier version, is read in the time zone of the system.
+     *
+     * @throws IllegalArgumentException if a line cannot be read.
+     */
+    public static DerivedMetrics parse(List<String> lines) {
+        ZoneId zone = ZoneId.systemDefault();
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            if (fields[0].equals("zone") && fields.length == 2) {
+                zone = ZoneId.of(fields[1]);
+            }
+        }
+        DerivedMetrics metrics = new DerivedMetrics(zone);
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            switch (fields[0]) {
+                case "zone":
+                    break;
+                case "first":
+                    metrics.firstTimestamp = Long.parseLong(fields[1]);
+                    break;
+                case "last":
+                    metrics.lastTimestamp = Long.parseLong(fields[1]);
+                    break;
+                case "day":
+                    metrics.day = Long.parseLong(fields[1]);
+                    metrics.daySum = Long.parseLong(fields[2]);
+                    break;
+                case "rain":
+                    metrics.push(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown derived metric: " + line);
+            }
+        }
+        return metrics;
+    }
+
+    private void push(long timestamp, long rain) {
+        if (windowSize == windowTimestamps.length) {
+            long[] timestamps = new long[windowSize * 2];
+            long[] rains = new long[windowSize * 2];
+            for (int i = 0; i < windowSize; i++) {
+                timestamps[i] = windowTimestamps[(windowFirst + i) % windowSize];
+                rains[i] = windowRain[(windowFirst + i) % windowSize];
+            }
+            windowTimestamps = timestamps;
+            windowRain = rains;
+            windowFirst = 0;
+        }
+        int index = (windowFirst + windowSize) % windowTimestamps.length;
+        windowTimestamps[index] = timestamp;
+        windowRain[index] = rain;
+        windowSize++;
+        windowSum += rain;
+    }
+
+    private long day(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate().toEpochDay();
+    }
+}
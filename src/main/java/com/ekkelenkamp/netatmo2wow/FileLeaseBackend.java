@@ -0,0 +1,132 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lease backend on a directory that is shared by all nodes, e.g. an NFS or SMB mount.
+ * <p/>
+ * A lease is a file lease-&lt;station&gt; with the node id and the expiry time; it is changed while holding a lock
+ * on lease-&lt;station&gt;.lock. Heartbeats are files node-&lt;node id&gt; with the expiry time.
+ * Expiry times are compared with the local clock, so the clocks of the nodes must be synchronized
+ * well within the lease time.
+ */
+public class FileLeaseBackend implements LeaseBackend {
+
+    private static final String LEASE_PREFIX = "lease-";
+    private static final String NODE_PREFIX = "node-";
+
+    private final Path directory;
+
+    public FileLeaseBackend(String directory) {
+        if (directory == null || directory.isEmpty())
+            throw new IllegalArgumentException("Lease location is empty");
+        this.directory = Path.of(directory);
+        if (!Files.isDirectory(this.directory))
+            throw new IllegalArgumentException("Lease location '" + directory + "' is not a directory");
+    }
+
+    @Override
+    public boolean tryAcquire(String station, String nodeId, long ttlMillis) {
+        Path lease = directory.resolve(LEASE_PREFIX + fileName(station));
+        try (FileChannel lockChannel = FileChannel.open(lockFile(station), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // released when the channel is closed.
+            lockChannel.lock();
+            String[] current = readLines(lease);
+            long now = System.currentTimeMillis();
+            if (current.length >= 2 && !current[0].equals(nodeId) && Long.parseLong(current[1]) > now) {
+                return false;
+            }
+            write(lease, nodeId + "\n" + (now + ttlMillis) + "\n");
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Cannot acquire lease of " + station, e);
+        }
+    }
+
+    @Override
+    public void release(String station, String nodeId) {
+        Path lease = directory.resolve(LEASE_PREFIX + fileName(station));
+        try (FileChannel lockChannel = FileChannel.open(lockFile(station), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // released when the channel is closed.
+            lockChannel.lock();
+            String[] current = readLines(lease);
+            if (current.length >= 1 && current[0].equals(nodeId)) {
+                Files.delete(lease);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot release lease of " + station, e);
+        }
+    }
+
+    @Override
+    public void heartbeat(String nodeId, long ttlMillis) {
+        try {
+            write(directory.resolve(NODE_PREFIX + fileName(nodeId)), nodeId + "\n" + (System.currentTimeMillis() + ttlMillis) + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write heartbeat of " + nodeId, e);
+        }
+    }
+
+    @Override
+    public Set<String> liveNodes() {
+        Set<String> nodes = new HashSet<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, NODE_PREFIX + "*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) continue;
+                String[] node = readLines(file);
+                try {
+                    if (node.length >= 2 && Long.parseLong(node[1]) > now) {
+                        nodes.add(node[0]);
+                    }
+                } catch (NumberFormatException e) {
+                    // a heartbeat that cannot be read counts as expired.
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read heartbeats in " + directory, e);
+        }
+        return nodes;
+    }
+
+    private Path lockFile(String station) {
+        return directory.resolve(LEASE_PREFIX + fileName(station) + ".lock");
+    }
+
+    private static String[] readLines(Path file) throws IOException {
+        try {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            return content.isEmpty() ? new String[0] : content.split("\n");
+        } catch (NoSuchFileException e) {
+            return new String[0];
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        // several processes of one node may write the same heartbeat at the same time.
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String fileName(String key) {
+        if (key == null || key.isEmpty())
+            throw new IllegalArgumentException("Lease key is empty");
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,63 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the periods that have not been uploaded, from the periods that have been.
+ * <p/>
+ * Netatmo measures every 5 minutes, so holes of at most 5 minutes between uploaded periods contain no measure and are
+ * not gaps. Before the first uploaded period nothing is known, so that is not a gap either.
+ */
+public class GapDetector {
+
+    public static final long CADENCE_MILLIS = 5L * 60L * 1000L;
+    // uploaded periods are kept for this number of days, so gaps can be filled up to this age.
+    public static final long RETENTION_DAYS = 31;
+
+    private GapDetector() {
+    }
+
+    /**
+     * @return the ranges sorted, with ranges that overlap or are at most tolerance apart joined.
+     */
+    public static List<TimeRange> merge(List<TimeRange> ranges, long tolerance) {
+        List<TimeRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(TimeRange::getBegin));
+        List<TimeRange> result = new ArrayList<>();
+        for (TimeRange range : sorted) {
+            int last = result.size() - 1;
+            if (last >= 0 && range.getBegin() - result.get(last).getEnd() <= tolerance) {
+                TimeRange previous = result.get(last);
+                result.set(last, new TimeRange(previous.getBegin(), Math.max(previous.getEnd(), range.getEnd())));
+            } else {
+                result.add(range);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param covered the uploaded periods.
+     * @return the periods between from and to that are not covered, sorted.
+     */
+    public static List<TimeRange> gaps(List<TimeRange> covered, long from, long to) {
+        List<TimeRange> result = new ArrayList<>();
+        List<TimeRange> merged = merge(covered, CADENCE_MILLIS);
+        if (merged.isEmpty()) return result;
+        long position = Math.max(from, merged.get(0).getBegin());
+        for (TimeRange range : merged) {
+            if (range.getEnd() <= position) continue;
+            if (range.getBegin() >= to) break;
+            if (range.getBegin() - position > CADENCE_MILLIS) {
+                result.add(new TimeRange(position, range.getBegin()));
+            }
+            position = Math.max(position, range.getEnd());
+        }
+        if (to - position > CADENCE_MILLIS) {
+            result.add(new TimeRange(position, to));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes only the measures within the gaps of a target on to it, so the gaps of several targets can be filled with
+ * one download without uploading the measures around them again.
+ */
+class GapFillSink implements ObservationSink {
+
+    private final ObservationSink target;
+    private final List<TimeRange> gaps;
+
+    /**
+     * @param gaps the periods between the measures that were uploaded to the target.
+     */
+    GapFillSink(ObservationSink target, List<TimeRange> gaps) {
+        this.target = target;
+        this.gaps = gaps;
+    }
+
+    @Override
+    public String getName() {
+        return target.getName();
+    }
+
+    @Override
+    public long getPreviousTimeStep() {
+        return target.getPreviousTimeStep();
+    }
+
+    @Override
+    public List<TimeRange> getRejected() {
+        return target.getRejected();
+    }
+
+    @Override
+    public long upload(List<EncodedMeasure> measures) throws IOException {
+        List<EncodedMeasure> missing = new ArrayList<>(measures.size());
+        for (EncodedMeasure measure : measures) {
+            if (inGap(measure.getTimestamp())) {
+                missing.add(measure);
+            }
+        }
+        return missing.isEmpty() ? target.getPreviousTimeStep() : target.upload(missing);
+    }
+
+    @Override
+    public boolean uploadAhead(EncodedMeasure measure) throws IOException {
+        return inGap(measure.getTimestamp()) && target.uploadAhead(measure);
+    }
+
+    private boolean inGap(long timestamp) {
+        for (TimeRange gap : gaps) {
+            // the measures at the ends of a gap were uploaded.
+            if (timestamp > gap.getBegin() && timestamp < gap.getEnd()) return true;
+        }
+        return false;
+    }
+}
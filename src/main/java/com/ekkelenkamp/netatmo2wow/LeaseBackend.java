@@ -0,0 +1,33 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.util.Set;
+
+/**
+ * Shared storage of station leases and node heartbeats, used by {@link StationLeases} to divide
+ * the stations over the nodes that run netatmo2wow.
+ */
+public interface LeaseBackend {
+
+    /**
+     * Take the lease of the station if it is free, expired or already held by the node, and let it expire
+     * ttlMillis from now.
+     *
+     * @return true if the node holds the lease.
+     */
+    boolean tryAcquire(String station, String nodeId, long ttlMillis);
+
+    /**
+     * Give up the lease of the station if the node holds it.
+     */
+    void release(String station, String nodeId);
+
+    /**
+     * Announce that the node is alive for the next ttlMillis.
+     */
+    void heartbeat(String nodeId, long ttlMillis);
+
+    /**
+     * @return the nodes of which the last heartbeat has not expired yet.
+     */
+    Set<String> liveNodes();
+}
@@ -0,0 +1,169 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes measures to a compressed columnar file, block by block, so the memory use does not depend on the
+ * length of the exported period.
+ * <p/>
+ * File layout, all numbers big endian:
+ * <pre>
+ * header: int MAGIC, short VERSION, short column count, per column: UTF name, int scale
+ * block:  int rows, long first timestamp, long last timestamp,
+ *         per column: long min, long max (scaled, min &gt; max if the column has no values in the block),
+ *         int compressed length, deflated payload
+ * end:    int 0
+ * payload: rows - 1 varint timestamp deltas,
+ *          per column: presence bitmap of (rows + 7) / 8 bytes, varint (value - min) per present value
+ * </pre>
+ * Values are stored as integers: the value multiplied by the scale of the column and rounded.
+ * The block headers are not compressed, so a reader skips blocks outside a time range without inflating them.
+ */
+public class MeasuresExport implements AutoCloseable {
+
+    static final int MAGIC = 0x4E32574D;
+    static final short VERSION = 1;
+    static final int BLOCK_ROWS = 4096;
+
+    static final String[] COLUMNS = {"temperature", "humidity", "pressure", "rain", "rainLastHour", "rainAccumulated",
+            "windStrength", "windAngle", "windGustStrength", "windGustAngle"};
+    static final int[] SCALES = {100, 100, 100, 1000, 1000, 1000, 100, 100, 100, 100};
+    static final long MISSING = Long.MIN_VALUE;
+
+    private final DataOutputStream out;
+    private final long[] timestamps = new long[BLOCK_ROWS];
+    private final long[][] values = new long[COLUMNS.length][BLOCK_ROWS];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] payload = new byte[BLOCK_ROWS * 8];
+    private int payloadLength;
+    private byte[] compressed = new byte[BLOCK_ROWS * 8];
+    private int rows;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long numberOfRows;
+
+    public MeasuresExport(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(COLUMNS.length);
+        for (int column = 0; column < COLUMNS.length; column++) {
+            out.writeUTF(COLUMNS[column]);
+            out.writeInt(SCALES[column]);
+        }
+    }
+
+    /**
+     * Append sorted measures. Measures that are not later than the last written measure are skipped.
+     */
+    public void write(List<Observation> measures) throws IOException {
+        for (Observation measure : measures) {
+            if (measure.getTimestamp() <= lastTimestamp) continue;
+            lastTimestamp = measure.getTimestamp();
+            timestamps[rows] = measure.getTimestamp();
+            values[0][rows] = scale(measure.getTemperature(), SCALES[0]);
+            values[1][rows] = scale(measure.getHumidity(), SCALES[1]);
+            values[2][rows] = scale(measure.getPressure(), SCALES[2]);
+            values[3][rows] = scale(measure.getRain(), SCALES[3]);
+            values[4][rows] = scale(measure.getRainLastHour(), SCALES[4]);
+            values[5][rows] = scale(measure.getRainAccumulated(), SCALES[5]);
+            values[6][rows] = scale(measure.getWindStrength(), SCALES[6]);
+            values[7][rows] = scale(measure.getWindAngle(), SCALES[7]);
+            values[8][rows] = scale(measure.getWindGustStrength(), SCALES[8]);
+            values[9][rows] = scale(measure.getWindGustAngle(), SCALES[9]);
+            if (++rows == BLOCK_ROWS) {
+                writeBlock();
+            }
+        }
+    }
+
+    public long getNumberOfRows() {
+        return numberOfRows + rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+            out.writeInt(0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (rows == 0) return;
+        payloadLength = 0;
+        for (int row = 1; row < rows; row++) {
+            writeVarint(timestamps[row] - timestamps[row - 1]);
+        }
+        out.writeInt(rows);
+        out.writeLong(timestamps[0]);
+        out.writeLong(timestamps[rows - 1]);
+        for (long[] column : values) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int row = 0; row < rows; row++) {
+                if (column[row] == MISSING) continue;
+                min = Math.min(min, column[row]);
+                max = Math.max(max, column[row]);
+            }
+            out.writeLong(min);
+            out.writeLong(max);
+            int bitmap = payloadLength;
+            ensurePayload((rows + 7) / 8);
+            payloadLength += (rows + 7) / 8;
+            for (int row = 0; row < rows; row++) {
+                if (column[row] == MISSING) continue;
+                payload[bitmap + row / 8] |= (byte) (1 << (row % 8));
+                writeVarint(column[row] - min);
+            }
+        }
+
+        deflater.reset();
+        deflater.setInput(payload, 0, payloadLength);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        out.writeInt(length);
+        out.write(compressed, 0, length);
+        numberOfRows += rows;
+        rows = 0;
+    }
+
+    private void writeVarint(long value) {
+        ensurePayload(10);
+        while ((value & ~0x7FL) != 0) {
+            payload[payloadLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        payload[payloadLength++] = (byte) value;
+    }
+
+    private void ensurePayload(int extra) {
+        if (payloadLength + extra > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, payloadLength + extra));
+        }
+        // bitmaps are or-ed into the payload, so the reused buffer is cleared as it is written.
+        Arrays.fill(payload, payloadLength, payloadLength + extra, (byte) 0);
+    }
+
+    private static long scale(double value, int scale) {
+        if (Double.isNaN(value)) return MISSING;
+        return Math.round(value * scale);
+    }
+}
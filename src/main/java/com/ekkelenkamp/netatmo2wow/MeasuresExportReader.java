@@ -0,0 +1,191 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the files written by {@link MeasuresExport}.
+ * <p/>
+ * Blocks outside the requested time range are skipped without inflating them.
+ */
+public class MeasuresExportReader {
+
+    private final Path file;
+
+    public MeasuresExportReader(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Pass the observations from dateBegin up to and including dateEnd (in milliseconds) to the consumer, sorted by time.
+     *
+     * @return the number of observations read.
+     */
+    public long read(long dateBegin, long dateEnd, Consumer<Observation> consumer) throws IOException {
+        long count = 0;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = open()) {
+            int[] scales = readHeader(in);
+            int columns = scales.length;
+            long[] min = new long[columns];
+            long[][] values = new long[columns][MeasuresExport.BLOCK_ROWS];
+            long[] timestamps = new long[MeasuresExport.BLOCK_ROWS];
+            byte[] compressed = new byte[0];
+            byte[] payload = new byte[MeasuresExport.BLOCK_ROWS * 8];
+            int rows;
+            while ((rows = in.readInt()) > 0) {
+                long first = in.readLong();
+                long last = in.readLong();
+                for (int column = 0; column < columns; column++) {
+                    min[column] = in.readLong();
+                    in.readLong();
+                }
+                int length = in.readInt();
+                if (last < dateBegin || first > dateEnd) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                if (rows > timestamps.length) {
+                    throw new IOException("Block of " + rows + " rows in " + file + " is larger than supported");
+                }
+                if (compressed.length < length) compressed = new byte[length];
+                in.readFully(compressed, 0, length);
+                payload = inflate(inflater, compressed, length, payload);
+
+                int[] position = {0};
+                timestamps[0] = first;
+                for (int row = 1; row < rows; row++) {
+                    timestamps[row] = timestamps[row - 1] + readVarint(payload, position);
+                }
+                for (int column = 0; column < columns; column++) {
+                    int bitmap = position[0];
+                    position[0] += (rows + 7) / 8;
+                    for (int row = 0; row < rows; row++) {
+                        values[column][row] = (payload[bitmap + row / 8] & (1 << (row % 8))) != 0
+                                ? min[column] + readVarint(payload, position)
+                                : MeasuresExport.MISSING;
+                    }
+                }
+                for (int row = 0; row < rows; row++) {
+                    if (timestamps[row] < dateBegin || timestamps[row] > dateEnd) continue;
+                    consumer.accept(observation(timestamps[row], values, row, scales));
+                    count++;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return count;
+    }
+
+    /**
+     * @return the minimum and maximum of the column over the whole file, from the block headers only;
+     * null if the column has no values.
+     */
+    public double[] range(String column) throws IOException {
+        try (DataInputStream in = open()) {
+            int[] scales = readHeader(in);
+            int index = indexOf(column);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            while (in.readInt() > 0) {
+                in.skipNBytes(16);
+                for (int c = 0; c < scales.length; c++) {
+                    long blockMin = in.readLong();
+                    long blockMax = in.readLong();
+                    if (c == index && blockMin <= blockMax) {
+                        min = Math.min(min, blockMin);
+                        max = Math.max(max, blockMax);
+                    }
+                }
+                in.skipNBytes(in.readInt());
+            }
+            if (min > max) return null;
+            return new double[]{(double) min / scales[index], (double) max / scales[index]};
+        }
+    }
+
+    private DataInputStream open() throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+    }
+
+    private int[] readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MeasuresExport.MAGIC) throw new IOException(file + " is not a measures export");
+        short version = in.readShort();
+        if (version != MeasuresExport.VERSION) throw new IOException("Unsupported version " + version + " of " + file);
+        int columns = in.readShort();
+        if (columns != MeasuresExport.COLUMNS.length) throw new IOException("Unexpected number of columns in " + file);
+        int[] scales = new int[columns];
+        for (int column = 0; column < columns; column++) {
+            in.readUTF();
+            scales[column] = in.readInt();
+        }
+        return scales;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < MeasuresExport.COLUMNS.length; i++) {
+            if (MeasuresExport.COLUMNS[i].equals(column)) return i;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    private byte[] inflate(Inflater inflater, byte[] compressed, int length, byte[] payload) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == payload.length) {
+                    payload = Arrays.copyOf(payload, payload.length * 2);
+                }
+                int inflated = inflater.inflate(payload, size, payload.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated block in " + file);
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in " + file, e);
+        }
+        return payload;
+    }
+
+    private static long readVarint(byte[] payload, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = payload[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static Observation observation(long timestamp, long[][] values, int row, int[] scales) {
+        return Observation.builder(timestamp)
+                .temperature(value(values, 0, row, scales))
+                .humidity(value(values, 1, row, scales))
+                .pressure(value(values, 2, row, scales))
+                .rain(value(values, 3, row, scales))
+                .rainLastHour(value(values, 4, row, scales))
+                .rainAccumulated(value(values, 5, row, scales))
+                .wind(value(values, 6, row, scales), value(values, 7, row, scales), value(values, 8, row, scales), value(values, 9, row, scales))
+                .build();
+    }
+
+    private static double value(long[][] values, int column, int row, int[] scales) {
+        long value = values[column][row];
+        return value == MeasuresExport.MISSING ? Double.NaN : (double) value / scales[column];
+    }
+}
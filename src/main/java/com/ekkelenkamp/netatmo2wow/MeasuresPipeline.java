@@ -0,0 +1,342 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Device;
+import com.ekkelenkamp.netatmo2wow.model.Measures;
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads, derives and uploads measures in time slices, in three stages connected by bounded queues of
+ * immutable {@link Observation}s:
+ * <ol>
+ * <li>fetch: download and merge the measures of all modules of one time slice.</li>
+ * <li>derive: calculate the rainfall in the last hour and of the day, measure by measure, see {@link DerivedMetrics}.</li>
+ * <li>upload: optionally export or buffer the slice, optionally resample it onto a coarser interval, encode it once and upload it to all sinks.</li>
+ * </ol>
+ * A slice is uploaded while the next slices are downloaded. When the upload is slower, the full queues
+ * block the fetch stage, so no more than a few slices are kept in memory.
+ * <p/>
+ * With the derived metrics of the previous run, a run that starts within that run and only uploads newer
+ * measures continues from them: only the measures after the last derived one are downloaded and derived.
+ * <p/>
+ * With newest first, a run that has more than a slice to catch up downloads the newest slice first and uploads its
+ * newest measure, so the current weather is not delayed by the backlog; see {@link ObservationSink#uploadAhead}.
+ * The newest slice is at least an hour and a half long, so the rainfall in the last hour of that measure is known.
+ * It is then derived and uploaded after the backlog, as the last slice.
+ */
+public class MeasuresPipeline {
+
+    private static final Logger logger = LogManager.getLogger(MeasuresPipeline.class);
+
+    public static final long DEFAULT_SLICE_SECONDS = 3L * 60L * 60L;
+    // the hour before the newest measure, which can be some minutes old.
+    private static final long MIN_NEWEST_SECONDS = 90L * 60L;
+    // marks the end of the stream of slices in the queues.
+    private static final List<Observation> END = Collections.emptyList();
+
+    private final NetatmoDownload download;
+    private final ObservationFanOut fanOut;
+    private final long sliceSeconds;
+    private final int queueCapacity;
+    private Resampler resampler;
+    private MeasuresExport export;
+    private ObservationRing buffer;
+    private DerivedMetrics metrics;
+    private boolean newestFirst;
+
+    public MeasuresPipeline(NetatmoDownload download, ObservationSink sink) {
+        this(download, Collections.singletonList(sink), DEFAULT_SLICE_SECONDS, 2);
+    }
+
+    /**
+     * @param sinks         targets to upload to, each keeps its own last upload; may be empty when exporting.
+     * @param sliceSeconds  length of a time slice in seconds.
+     * @param queueCapacity maximum number of slices waiting between two stages.
+     */
+    public MeasuresPipeline(NetatmoDownload download, List<ObservationSink> sinks, long sliceSeconds, int queueCapacity) {
+        if (sliceSeconds <= 0) throw new IllegalArgumentException("Slice length must be positive: " + sliceSeconds);
+        this.download = download;
+        this.fanOut = new ObservationFanOut(sinks);
+        this.sliceSeconds = sliceSeconds;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Aggregate the measures onto the interval of the resampler before uploading them.
+     */
+    public void setResampler(Resampler resampler) {
+        this.resampler = resampler;
+    }
+
+    /**
+     * Write all derived measures to the export as well, before they are resampled.
+     */
+    public void setExport(MeasuresExport export) {
+        this.export = export;
+    }
+
+    /**
+     * Keep all derived measures in the buffer as well, before they are resampled.
+     */
+    public void setBuffer(ObservationRing buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Continue from the derived metrics of an earlier run, if possible.
+     */
+    public void setDerivedMetrics(DerivedMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the derived metrics after the run, to continue from in the next run.
+     */
+    public DerivedMetrics getDerivedMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Upload the newest measure before the older ones when catching up.
+     */
+    public void setNewestFirst(boolean newestFirst) {
+        this.newestFirst = newestFirst;
+    }
+
+    /**
+     * Download the measures of the given time period and upload them to all sinks.
+     * The last upload of every sink is available from the sinks afterwards, also after a failure.
+     *
+     * @return the earliest last upload of the sinks.
+     */
+    public long run(String clientId, String clientSecret, String timespan) throws Exception {
+        // netatmo calculates in seconds, not milliseconds.
+        long now = new java.util.Date().getTime() / 1000;
+        return run(clientId, clientSecret, now - Long.parseLong(timespan), 0);
+    }
+
+    /**
+     * Download the measures from dateBegin up to dateEnd and upload them to all sinks.
+     *
+     * @param dateBegin start in seconds.
+     * @param dateEnd   end (exclusive) in seconds, or 0 for up to now.
+     * @return the earliest last upload of the sinks.
+     */
+    public long run(String clientId, String clientSecret, long dateBegin, long dateEnd) throws Exception {
+        if (fanOut.getSinks().isEmpty() && export == null) throw new IllegalStateException("No upload target or export configured");
+        long now = new java.util.Date().getTime() / 1000;
+
+        Device device = download.connect(clientId, clientSecret);
+        // the daily rainfall starts at midnight at the station.
+        ZoneId zone = device.getTimezone() != null ? device.getTimezone() : ZoneId.systemDefault();
+        boolean incremental = canContinue(dateBegin, dateEnd) && metrics.getZone().equals(zone);
+        if (!incremental) {
+            metrics = new DerivedMetrics(zone);
+        }
+        long fetchBegin = incremental ? Math.max(dateBegin, metrics.getLastTimestamp() / 1000 + 1) : dateBegin;
+        logger.debug("Derived metrics {}, downloading from {}", incremental ? "continued" : "started", fetchBegin);
+
+        Double accumulatedRain = metrics.hasDailyRain() ? null : download.downloadAccumulatedRain(device, dateBegin);
+        List<Observation> newestSlice = null;
+        long newestSeconds = Math.max(sliceSeconds, MIN_NEWEST_SECONDS);
+        if (newestFirst && dateEnd == 0 && !fanOut.getSinks().isEmpty()
+                && now * 1000 - Math.max(fetchBegin * 1000, fanOut.getPreviousTimeStep()) > newestSeconds * 1000) {
+            newestSlice = Measures.toObservations(download.downloadMeasures(device, now - newestSeconds, 0));
+            uploadNewest(newestSlice, now, dateBegin, accumulatedRain);
+        }
+        List<Observation> lastSlice = newestSlice;
+
+        long fetchEnd = dateEnd > 0 ? Math.min(dateEnd, now) : now;
+        BlockingQueue<List<Observation>> fetched = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<Observation>> derived = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        try {
+            if (lastSlice == null) {
+                stages.execute(() -> fetch(device, fetchBegin, fetchEnd, dateEnd > 0, null, fetched, failure));
+            } else {
+                stages.execute(() -> fetch(device, fetchBegin, now - newestSeconds, true, lastSlice, fetched, failure));
+            }
+            stages.execute(() -> derive(fetched, derived, accumulatedRain, failure));
+
+            int numberOfMeasures = 0;
+            List<Observation> slice;
+            while ((slice = derived.take()) != END) {
+                numberOfMeasures += slice.size();
+                if (export != null) {
+                    export.write(slice);
+                }
+                if (buffer != null) {
+                    buffer.add(slice);
+                }
+                if (resampler != null) {
+                    slice = resampler.add(newerThan(slice, fanOut.getPreviousTimeStep()));
+                }
+                fanOut.upload(slice);
+            }
+            if (resampler != null && failure.get() == null) {
+                // measures of modules can arrive a little after the end of an interval.
+                fanOut.upload(resampler.flush(fetchEnd * 1000 - (dateEnd > 0 ? 0 : NetatmoDownload.TIME_STEP_TOLERANCE)));
+            }
+            if (accumulatedRain != null && failure.get() == null) {
+                metrics.startDailyRain(dateBegin * 1000, accumulatedRain);
+            }
+            logger.info("Number of Netatmo measurements read: {}", numberOfMeasures);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            if (!fanOut.isSuccessful()) {
+                throw new IOException("Upload failed for one or more targets");
+            }
+            return fanOut.getPreviousTimeStep();
+        } finally {
+            stages.shutdownNow();
+            fanOut.close();
+        }
+    }
+
+    public List<ObservationSink> getSinks() {
+        return fanOut.getSinks();
+    }
+
+    /**
+     * @return true if the sink did not fail during the run.
+     */
+    public boolean isSuccessful(ObservationSink sink) {
+        return fanOut.isSuccessful(sink);
+    }
+
+    /**
+     * Upload the newest measure of the newest slice ahead of the backlog, resampled like the backlog, so the backlog
+     * skips it when it gets there. The slice itself is derived in order after the backlog, so the measure is derived
+     * with metrics of its own. Its daily rainfall is only known when the rain of the day of the run is today's rain.
+     */
+    private void uploadNewest(List<Observation> slice, long now, long dateBegin, Double accumulatedRain) throws InterruptedException {
+        DerivedMetrics sliceMetrics = new DerivedMetrics();
+        List<Observation> derived = new ArrayList<>(slice.size());
+        for (Observation observation : slice) {
+            Observation withMetrics = sliceMetrics.add(observation);
+            if (withMetrics != null) {
+                derived.add(withMetrics);
+            }
+        }
+        if (accumulatedRain != null && metrics.isSameDay(dateBegin * 1000, now * 1000)) {
+            // the rain of today up to now, minus the rain that fell after the measure.
+            double rain = accumulatedRain;
+            for (int i = derived.size() - 1; i >= 0 && metrics.isSameDay(derived.get(i).getTimestamp(), now * 1000); i--) {
+                derived.set(i, derived.get(i).withRainAccumulated(rain));
+                if (!Double.isNaN(derived.get(i).getRain())) rain -= derived.get(i).getRain();
+            }
+        }
+        if (resampler != null) {
+            derived = resampler.resample(derived, now * 1000 - NetatmoDownload.TIME_STEP_TOLERANCE);
+        }
+        for (int i = derived.size() - 1; i >= 0; i--) {
+            if (!Double.isNaN(derived.get(i).getTemperature())) {
+                fanOut.uploadAhead(derived.get(i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param last slice downloaded ahead, passed on after the slices of the period if all of them were downloaded.
+     */
+    private void fetch(Device device, long dateBegin, long dateEnd, boolean bounded, List<Observation> last, BlockingQueue<List<Observation>> out, AtomicReference<Exception> failure) {
+        try {
+            for (long begin = dateBegin; begin < dateEnd && failure.get() == null; begin += sliceSeconds) {
+                // the last slice is open ended, unless the period ends before now.
+                long end = begin + sliceSeconds < dateEnd ? begin + sliceSeconds : bounded ? dateEnd : 0;
+                List<Measures> measures = download.downloadMeasures(device, begin, end);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Downloaded {} measures from {}", measures.size(), new java.util.Date(begin * 1000));
+                }
+                out.put(Measures.toObservations(measures));
+            }
+            if (last != null && failure.get() == null) {
+                out.put(last);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            putEnd(out);
+        }
+    }
+
+    private void derive(BlockingQueue<List<Observation>> in, BlockingQueue<List<Observation>> out, Double accumulatedRain, AtomicReference<Exception> failure) {
+        try {
+            List<Observation> slice;
+            while ((slice = in.take()) != END) {
+                List<Observation> derived = new ArrayList<>(slice.size());
+                for (Observation observation : slice) {
+                    // neighbouring slices may both contain a measure near their boundary.
+                    Observation withMetrics = metrics.add(observation);
+                    if (withMetrics != null) {
+                        derived.add(withMetrics);
+                    }
+                }
+                if (derived.isEmpty()) continue;
+                if (accumulatedRain != null && !metrics.hasDailyRain()) {
+                    // the daily rainfall of the last measure is used for all measures that do not have one.
+                    int last = derived.size() - 1;
+                    derived.set(last, derived.get(last).withRainAccumulated(accumulatedRain));
+                }
+                out.put(derived);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            putEnd(out);
+        }
+    }
+
+    /**
+     * The derived metrics can only be continued if the period ends now and starts before their last measure,
+     * and no target needs the measures up to that measure again: every sink and the buffer are past it and
+     * nothing is exported.
+     */
+    private boolean canContinue(long dateBegin, long dateEnd) {
+        if (metrics == null || dateEnd > 0 || export != null) return false;
+        long last = metrics.getLastTimestamp();
+        if (last == Long.MIN_VALUE || dateBegin * 1000 > last + GapDetector.CADENCE_MILLIS) return false;
+        if (buffer != null && (buffer.latest() == null || buffer.latest().getTimestamp() < last)) return false;
+        return fanOut.getPreviousTimeStep() >= last;
+    }
+
+    /**
+     * Measures that have not been uploaded yet, so uploaded measures are not aggregated again.
+     */
+    private static List<Observation> newerThan(List<Observation> measures, long timestep) {
+        List<Observation> result = new ArrayList<>(measures.size());
+        for (Observation measure : measures) {
+            if (measure.getTimestamp() > timestep) {
+                result.add(measure);
+            }
+        }
+        return result;
+    }
+
+    private static void putEnd(BlockingQueue<List<Observation>> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client id and secret of a Netatmo application with the token files of the user for that application.
+ * <p/>
+ * Netatmo limits the requests per application and user, so every credential set keeps track of the requests
+ * made with it: at most {@link #REQUESTS_PER_10_SECONDS} per 10 seconds and {@link #REQUESTS_PER_HOUR} per hour.
+ * The requests are stored next to the token files, so the next run counts the requests of this one.
+ * When Netatmo answers that the limit is reached anyway, e.g. because another program uses the same application,
+ * the credential set is not used for a while, twice as long for every next answer like that.
+ */
+public class NetatmoCredentials {
+
+    public static final int REQUESTS_PER_10_SECONDS = 50;
+    public static final int REQUESTS_PER_HOUR = 500;
+    private static final long TEN_SECONDS = 10L * 1000L;
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long MIN_BACK_OFF = TEN_SECONDS;
+
+    private final String clientId;
+    private final String clientSecret;
+    private final NetatmoTokenFiles tokenFiles;
+    private final int requestsPerHour;
+    // times of the requests of the last hour, oldest first, in a ring buffer.
+    private final long[] requests;
+    private int first;
+    private int size;
+    private long blockedUntil;
+    private long backOff;
+    private volatile String accessToken;
+
+    public NetatmoCredentials(String clientId, String clientSecret, NetatmoTokenFiles tokenFiles) {
+        this(clientId, clientSecret, tokenFiles, REQUESTS_PER_HOUR);
+    }
+
+    public NetatmoCredentials(String clientId, String clientSecret, NetatmoTokenFiles tokenFiles, int requestsPerHour) {
+        if (requestsPerHour <= 0) throw new IllegalArgumentException("Requests per hour must be positive: " + requestsPerHour);
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.tokenFiles = tokenFiles;
+        this.requestsPerHour = requestsPerHour;
+        this.requests = new long[requestsPerHour];
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    public NetatmoTokenFiles getTokenFiles() {
+        return tokenFiles;
+    }
+
+    /**
+     * @return the access token as last read or refreshed.
+     */
+    public String getAccessToken() {
+        if (accessToken == null) {
+            accessToken = tokenFiles.readToken(NetatmoTokenType.ACCESS);
+        }
+        return accessToken;
+    }
+
+    void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * @return the number of requests that can be made now without exceeding a limit.
+     */
+    synchronized int remaining(long now) {
+        if (now < blockedUntil) return 0;
+        expire(now);
+        int lastTenSeconds = 0;
+        for (int i = size - 1; i >= 0 && requests[(first + i) % requests.length] > now - TEN_SECONDS; i--) {
+            lastTenSeconds++;
+        }
+        return Math.min(requestsPerHour - size, REQUESTS_PER_10_SECONDS - lastTenSeconds);
+    }
+
+    /**
+     * @return the time at which the next request can be made without exceeding a limit.
+     */
+    synchronized long availableAt(long now) {
+        if (remaining(now) > 0) return now;
+        if (now < blockedUntil) return blockedUntil;
+        if (size == requestsPerHour) {
+            return requests[first] + HOUR;
+        }
+        // the 10 seconds limit is reached: wait until the oldest request of the last 10 seconds expires.
+        return requests[(first + size - REQUESTS_PER_10_SECONDS) % requests.length] + TEN_SECONDS;
+    }
+
+    synchronized void record(long now) {
+        expire(now);
+        if (size == requests.length) {
+            first = (first + 1) % requests.length;
+            size--;
+        }
+        requests[(first + size) % requests.length] = now;
+        size++;
+    }
+
+    /**
+     * Stop using the credential set for a while, because Netatmo answered that a limit is reached.
+     *
+     * @return the time at which the credential set is used again.
+     */
+    synchronized long backOff(long now) {
+        // the back-off starts again once the previous one has passed without a new limit answer.
+        backOff = now < blockedUntil + backOff ? Math.min(Math.max(backOff * 2, MIN_BACK_OFF), HOUR) : MIN_BACK_OFF;
+        blockedUntil = now + backOff;
+        return blockedUntil;
+    }
+
+    /**
+     * Store the requests of the last hour and the back-off next to the token files.
+     */
+    synchronized void saveUsage(long now) {
+        if (tokenFiles == null) return;
+        expire(now);
+        List<String> lines = new ArrayList<>(size + 1);
+        if (blockedUntil > now) {
+            lines.add("backoff " + blockedUntil + " " + backOff);
+        }
+        for (int i = 0; i < size; i++) {
+            lines.add("request " + requests[(first + i) % requests.length]);
+        }
+        tokenFiles.writeUsage(lines);
+    }
+
+    /**
+     * Continue from the requests stored by an earlier run. Lines that cannot be read are ignored.
+     */
+    synchronized void loadUsage(long now) {
+        if (tokenFiles == null) return;
+        for (String line : tokenFiles.readUsage()) {
+            String[] fields = line.trim().split(" ");
+            try {
+                if (fields[0].equals("request") && fields.length == 2) {
+                    long time = Long.parseLong(fields[1]);
+                    if (time > now - HOUR && time <= now) {
+                        record(time);
+                    }
+                } else if (fields[0].equals("backoff") && fields.length == 3) {
+                    blockedUntil = Long.parseLong(fields[1]);
+                    backOff = Long.parseLong(fields[2]);
+                }
+            } catch (NumberFormatException e) {
+                // a line of an interrupted write.
+            }
+        }
+    }
+
+    private void expire(long now) {
+        while (size > 0 && requests[first] <= now - HOUR) {
+            first = (first + 1) % requests.length;
+            size--;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NetatmoCredentials{clientId=" + clientId + '}';
+    }
+}
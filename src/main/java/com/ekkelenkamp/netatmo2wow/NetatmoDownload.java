@@ -2,6 +2,7 @@ package com.ekkelenkamp.netatmo2wow;
 
 import com.ekkelenkamp.netatmo2wow.model.Device;
 import com.ekkelenkamp.netatmo2wow.model.Measures;
+import com.ekkelenkamp.netatmo2wow.model.Observation;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,93 +11,183 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import java.net.URL;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.Map.Entry;
 
 public class NetatmoDownload {
 	private NetatmoHttpClient netatmoHttpClient;
 	private NetatmoTokenFiles netatmoTokenFiles;
-	private String clientId;
-	private String clientSecret;
+	private String urlBase;
+	private CredentialPool credentials;
+	private Deadline deadline = Deadline.NONE;
 
 	private static final String REFRESH_TOKEN = "refresh_token";
 	private static final String ACCESS_TOKEN = "access_token";
+	// error code of Netatmo when the request limit of the application and user is reached.
+	private static final long USER_USAGE_REACHED = 26;
+	// limit answers for one getmeasure request per credential set, after which the request fails.
+	private static final int MAX_LIMIT_ANSWERS = 3;
     static final Logger logger = LogManager.getLogger(NetatmoDownload.class);
     static final long TIME_STEP_TOLERANCE = 2L * 60L * 1000L;
 
     // API URLs that will be used for requests, see: http://dev.netatmo.com/doc/restapi.
-    protected static final String URL_BASE = "https://api.netatmo.net";
-    protected static final String URL_REQUEST_TOKEN = URL_BASE + "/oauth2/token";
-    protected static final String URL_GET_MEASURES_LIST = URL_BASE + "/api/getmeasure";
-    protected static final String URL_GET_STATION_DATA = URL_BASE + "/api/getstationsdata";
+    public static final String URL_BASE = "https://api.netatmo.net";
+    protected static final String PATH_REQUEST_TOKEN = "/oauth2/token";
+    protected static final String PATH_GET_MEASURES_LIST = "/api/getmeasure";
+    protected static final String PATH_GET_STATION_DATA = "/api/getstationsdata";
 
     public NetatmoDownload(NetatmoHttpClient netatmoHttpClient, NetatmoTokenFiles netatmoTokenFiles) {
+        this(netatmoHttpClient, netatmoTokenFiles, URL_BASE);
+    }
+
+    /**
+     * @param urlBase scheme, host and optional port of the Netatmo API, e.g. a local stand-in server for testing.
+     */
+    public NetatmoDownload(NetatmoHttpClient netatmoHttpClient, NetatmoTokenFiles netatmoTokenFiles, String urlBase) {
         this.netatmoHttpClient = netatmoHttpClient;
         this.netatmoTokenFiles = netatmoTokenFiles;
+        this.urlBase = urlBase.endsWith("/") ? urlBase.substring(0, urlBase.length() - 1) : urlBase;
+    }
+
+    /**
+     * Download with several Netatmo applications, balancing the requests over them.
+     * The client id and secret given to {@link #connect(String, String)} are not used then.
+     */
+    public NetatmoDownload(NetatmoHttpClient netatmoHttpClient, CredentialPool credentials, String urlBase) {
+        this(netatmoHttpClient, credentials.getPrimary().getTokenFiles(), urlBase);
+        this.credentials = credentials;
     }
 
     public List<Measures> downloadMeasures(String clientId, String clientSecret, String timespan) {
-    	this.clientId = clientId;
-    	this.clientSecret = clientSecret;
-        
-        String scale = "max";
         long timePeriod = Long.parseLong(timespan);
-        
+
         // netatmo calculates in seconds, not milliseconds.
         long currentDate = ((new java.util.Date().getTime()) / 1000) - timePeriod;
-        logger.debug("start time: {}", new Date(currentDate * 1000));
-        logger.debug("start time seconds: {}", currentDate);
-        
-        Device device = getDevicesAndRefreskTokenIfNeeded(netatmoTokenFiles.readToken(NetatmoTokenType.ACCESS));
-        List<Measures> measures = new ArrayList<>();       
-        Map<String, List<String>> devices = device.getDevices();
+        if (logger.isDebugEnabled()) {
+            logger.debug("start time: {}", new Date(currentDate * 1000));
+            logger.debug("start time seconds: {}", currentDate);
+        }
+
+        Device device = connect(clientId, clientSecret);
+        Double accumulatedRain = downloadAccumulatedRain(device, currentDate);
+        List<Measures> measures = downloadMeasures(device, currentDate, 0);
+        calculateAccumulativeRainfail(measures, 0);
         
-        String accessToken = netatmoTokenFiles.readToken(NetatmoTokenType.ACCESS);
-    	logger.debug("Access Token: {}", accessToken);
+        if (!measures.isEmpty())
+        {
+        	measures.get(measures.size() - 1).setRainAccumulated(accumulatedRain);
+        }
         
-    	Double accumulatedRain = 0.0;
-        for (Entry<String, List<String>> dev : devices.entrySet()) 
+        return measures;
+    }
+
+    /**
+     * Read the devices of the station, refreshing the tokens if needed.
+     * Must be called before downloading measures of a time slice.
+     */
+    public Device connect(String clientId, String clientSecret) {
+        if (credentials == null) {
+            credentials = new CredentialPool(Collections.singletonList(new NetatmoCredentials(clientId, clientSecret, netatmoTokenFiles)));
+            credentials.setDeadline(deadline);
+        }
+        Device device = getDevicesAndRefreskTokenIfNeeded(credentials.getPrimary());
+        for (NetatmoCredentials other : credentials.getCredentials()) {
+            if (other == credentials.getPrimary()) continue;
+            try {
+                // refresh the tokens of the other applications now, so they can be used for the measures.
+                getDevicesAndRefreskTokenIfNeeded(other);
+            } catch (RuntimeException e) {
+                logger.warn("Cannot connect with Netatmo application {}, not using it: {}", other.getClientId(), e.toString());
+                credentials.remove(other);
+            }
+        }
+        logger.debug("Connected with {} Netatmo application(s)", credentials.getCredentials().size());
+        return device;
+    }
+
+    /**
+     * Download and merge the measures of all modules of the device, sorted by time.
+     * Rainfall in the last hour is not calculated yet, see {@link #calculateAccumulativeRainfail(List, int)}.
+     *
+     * @param dateBegin start of the time slice in seconds.
+     * @param dateEnd end (exclusive) of the time slice in seconds, or 0 for up to now.
+     */
+    public List<Measures> downloadMeasures(Device device, long dateBegin, long dateEnd) {
+        String scale = "max";
+        List<Measures> measures = new ArrayList<>();
+        // modules measure a little later than the main device, so take the neighbouring module measures along.
+        String deviceEnd = dateEnd > 0 ? "" + (dateEnd - 1) : "";
+        long moduleBegin = dateBegin - TIME_STEP_TOLERANCE / 1000;
+        String moduleEnd = dateEnd > 0 ? "" + (dateEnd + TIME_STEP_TOLERANCE / 1000) : "";
+
+        logger.debug("Device: {}", device);
+        for (Entry<String, List<String>> dev : device.getDevices().entrySet()) 
         {
-        	measures.addAll(getMeasures(accessToken, dev.getKey(), null, "Pressure" , scale, currentDate, ""));
+        	measures.addAll(getMeasures(accessToken(), dev.getKey(), null, "Pressure" , scale, dateBegin, deviceEnd));
             List<String> modules = dev.getValue();
             
             for (String module : modules) 
             {
-                logger.debug("Device: {}", device);
-                logger.debug("Module: {}", module);
+                // the arguments are existing strings, so nothing is allocated when debug is off.
+                logger.debug("Module: {} of {}", module, dev.getKey());
 
                 String moduleMeasureTypes = device.getModuleDataType(module);
-                
-                if (moduleMeasureTypes.equals("Rain"))
+                List<Measures> newMeasures = getMeasures(accessToken(), dev.getKey(), module, moduleMeasureTypes, scale, moduleBegin, moduleEnd);
+                measures = mergeMeasures(measures, newMeasures, TIME_STEP_TOLERANCE);
+            }
+        }
+        
+        Collections.sort(measures);
+        return measures;
+    }
+
+    /**
+     * Accumulated rainfall of the current day from the rain module, 0 if there is no rain module.
+     */
+    public Double downloadAccumulatedRain(Device device, long dateBegin) {
+    	Double accumulatedRain = 0.0;
+        for (Entry<String, List<String>> dev : device.getDevices().entrySet()) 
+        {
+            for (String module : dev.getValue()) 
+            {
+                if (device.getModuleDataType(module).equals("Rain"))
                 {
                     List<Measures> accumRain = 
-                    		getMeasures(accessToken, dev.getKey(), module, "sum_rain", "1day", currentDate, "last");
+                    		getMeasures(accessToken(), dev.getKey(), module, "sum_rain", "1day", dateBegin, "last");
                     
                     if (!accumRain.isEmpty())
                     {
                     	accumulatedRain = accumRain.get(0).getRainAccumulated();
                     }
                 }
-
-                List<Measures> newMeasures = getMeasures(accessToken, dev.getKey(), module, moduleMeasureTypes, scale, currentDate, "");
-                measures = mergeMeasures(measures, newMeasures, TIME_STEP_TOLERANCE);
             }
         }
-        
-        Collections.sort(measures);
-        calculateAccumulativeRainfail(measures);
-        
-        if (!measures.isEmpty())
-        {
-        	measures.get(measures.size() - 1).setRainAccumulated(accumulatedRain);
+        return accumulatedRain;
+    }
+
+    /**
+     * @return the access token of the application with the most requests left, counting the request.
+     */
+    private String accessToken() {
+        try {
+            return credentials.next().getAccessToken();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the Netatmo request limit", e);
         }
-        
-        return measures;
     }
 
-    private void calculateAccumulativeRainfail(List<Measures> measures) 
+    /**
+     * Calculate the rainfall in the last hour of the sorted measures.
+     *
+     * @param measures sorted measures.
+     * @param from index of the first measure to calculate; earlier measures are only used as history.
+     */
+    static void calculateAccumulativeRainfail(List<Measures> measures, int from) 
     {
-        for (int i = measures.size() - 1; i > 0; i--) 
+        for (int i = measures.size() - 1; i > 0 && i >= from; i--) 
         {
             Measures latestMeasure = measures.get(i);
             // now get all measures before and including this one until we accumulated 1 hour of rainfall.
@@ -135,18 +226,17 @@ public class NetatmoDownload {
 
         for (Measures n : newMeasuresList) 
         {
-            boolean mergedMeasure = false;
+            Observation merged = null;
             for (Measures m : measures) 
             {
                 if (Math.abs(m.getTimestamp() - n.getTimestamp()) < timestepTolerance) 
                 {
-                    n.merge(m);
-                    mergedMeasure = true;
+                    merged = (merged != null ? merged : n.toObservation()).merge(m.toObservation());
                 }
             }
-            if (mergedMeasure) 
+            if (merged != null) 
             {
-                result.add(n);
+                result.add(Measures.of(merged));
             }
         }
         return result;
@@ -165,9 +255,9 @@ public class NetatmoDownload {
         params.put("type", measureTypes);
         params.put("scale", scale);
         
-        if ("last".equals(dateEnd))
+        if (dateEnd != null && !dateEnd.isEmpty())
         {
-        	params.put("date_end", "" + dateEnd);
+        	params.put("date_end", dateEnd);
         }
         
         params.put("date_begin", "" + dateBegin);        	
@@ -176,10 +266,7 @@ public class NetatmoDownload {
         List<Measures> measuresList = new ArrayList<>();
         try 
         {
-            JSONParser parser = new JSONParser();
-            String result = netatmoHttpClient.post(new URL(URL_GET_MEASURES_LIST), params);
-            Object obj = parser.parse(result);
-            JSONObject jsonResult = (JSONObject) obj;
+            JSONObject jsonResult = postMeasures(params);
             if (!(jsonResult.get("body") instanceof JSONObject)) 
             {
                 logger.info("No data found");
@@ -191,36 +278,35 @@ public class NetatmoDownload {
             {
                 String timeStamp = (String) o;
                 JSONArray valuesArray = (JSONArray) body.get(timeStamp);
-                Measures measures = new Measures();
                 long times = Long.parseLong(timeStamp) * 1000;
-                measures.setTimestamp(times);
+                Observation.Builder observation = Observation.builder(times);
                 
                 if (measureTypes.equals("Pressure") && valuesArray.get(0) != null) 
                 {
-                    measures.setPressure(Double.parseDouble("" + valuesArray.get(0)));
+                    observation.pressure(Double.parseDouble("" + valuesArray.get(0)));
                 } 
                 else if (measureTypes.equals("Rain"))
                 {
-                	measures.setRain(Double.parseDouble("" + valuesArray.get(0)));
+                	observation.rain(Double.parseDouble("" + valuesArray.get(0)));
                 }
                 else if (measureTypes.equals("sum_rain"))
         		{
-            		measures.setRainAccumulated(Double.parseDouble("" + valuesArray.get(0)));	
+            		observation.rainAccumulated(Double.parseDouble("" + valuesArray.get(0)));	
 	    		}
                 else if (measureTypes.equals("Temperature,Humidity"))
                 {
-                	measures.setTemperature(Double.parseDouble("" + valuesArray.get(0)));
-                	measures.setHumidity(Double.parseDouble("" + valuesArray.get(1)));
+                	observation.temperature(Double.parseDouble("" + valuesArray.get(0)));
+                	observation.humidity(Double.parseDouble("" + valuesArray.get(1)));
                 }
                 else if (measureTypes.equals("WindStrength,WindAngle,GustStrength,GustAngle"))
                 {
-                	measures.setWind(Double.parseDouble("" + valuesArray.get(0)),
+                	observation.wind(Double.parseDouble("" + valuesArray.get(0)),
                 			Double.parseDouble("" + valuesArray.get(1)),
         					Double.parseDouble("" + valuesArray.get(2)),
 							Double.parseDouble("" + valuesArray.get(3)));
                 }
                 
-                measuresList.add(measures);
+                measuresList.add(Measures.of(observation.build()));
             }
 
             return measuresList;
@@ -229,7 +315,59 @@ public class NetatmoDownload {
         }
     }
 
+    /**
+     * Post a getmeasure request. When Netatmo answers that the request limit is reached, the credential set of the
+     * access token backs off and the request is made again with the next credential set, waiting no longer than
+     * the deadline. The request fails after {@value #MAX_LIMIT_ANSWERS} such answers per credential set.
+     */
+    private JSONObject postMeasures(Map<String, String> params) throws Exception {
+        for (int limitAnswers = 1; ; limitAnswers++) {
+            try {
+                JSONObject jsonResult = (JSONObject) new JSONParser().parse(netatmoHttpClient.postForReader(new URL(urlBase + PATH_GET_MEASURES_LIST), params));
+                if (jsonResult.get("error") instanceof JSONObject && Long.valueOf(USER_USAGE_REACHED).equals(((JSONObject) jsonResult.get("error")).get("code"))) {
+                    throw new NetatmoLimitException("User usage reached");
+                }
+                return jsonResult;
+            } catch (NetatmoLimitException e) {
+                if (credentials == null) throw e;
+                if (limitAnswers >= MAX_LIMIT_ANSWERS * credentials.getCredentials().size()) {
+                    throw new NetatmoLimitException("Netatmo request limit reached " + limitAnswers + " times for one request, giving up");
+                }
+                credentials.backOff(params.get(ACCESS_TOKEN));
+                params.put(ACCESS_TOKEN, accessToken());
+            }
+        }
+    }
+
+    /**
+     * Do not wait for the Netatmo request limit beyond the deadline.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+        if (credentials != null) {
+            credentials.setDeadline(deadline);
+        }
+    }
+
+    /**
+     * Store the requests made, so the next run counts them for the Netatmo request limit.
+     */
+    public void saveUsage() {
+        if (credentials != null) {
+            credentials.saveUsage();
+        }
+    }
+
     public Device getDevicesAndRefreskTokenIfNeeded(String token) {
+        if (credentials == null) throw new IllegalStateException("Not connected");
+        NetatmoCredentials primary = credentials.getPrimary();
+        primary.setAccessToken(token);
+        return getDevicesAndRefreskTokenIfNeeded(primary);
+    }
+
+    private Device getDevicesAndRefreskTokenIfNeeded(NetatmoCredentials netatmoCredentials) {
+        String token = netatmoCredentials.getAccessToken();
+        netatmoCredentials.record(System.currentTimeMillis());
         Device device = new Device();
         HashMap<String, String> params = new HashMap<>();
         params.put(ACCESS_TOKEN,token);
@@ -237,16 +375,17 @@ public class NetatmoDownload {
         try 
         {
             JSONParser parser = new JSONParser();
-            String result = netatmoHttpClient.post(new URL(URL_GET_STATION_DATA), params);
-            Object obj = parser.parse(result);
+            Object obj = parser.parse(netatmoHttpClient.postForReader(new URL(urlBase + PATH_GET_STATION_DATA), params));
             JSONObject jsonResult = (JSONObject) obj;
             JSONObject body = (JSONObject) jsonResult.get("body");
             if (body == null)
             {
-            	token = refreshTokens();
+            	// the token request and the second getstationsdata count for the limit as well.
+            	netatmoCredentials.record(System.currentTimeMillis());
+            	token = refreshTokens(netatmoCredentials);
             	params.put(ACCESS_TOKEN,token);
-            	result = netatmoHttpClient.post(new URL(URL_GET_STATION_DATA), params);
-                obj = parser.parse(result);
+            	netatmoCredentials.record(System.currentTimeMillis());
+                obj = parser.parse(netatmoHttpClient.postForReader(new URL(urlBase + PATH_GET_STATION_DATA), params));
                 jsonResult = (JSONObject) obj;
                 body = (JSONObject) jsonResult.get("body");            	
             }
@@ -255,6 +394,7 @@ public class NetatmoDownload {
             {            	
             	JSONObject firstDevice = (JSONObject) devices.get(0);            
             	String deviceId = (String) firstDevice.get("_id");            	
+            	device.setTimezone(timezoneOf(firstDevice));
             	JSONArray modules = (JSONArray) firstDevice.get("modules");
             	
             	for (int i = 0; i < modules.size(); i++) 
@@ -283,27 +423,44 @@ public class NetatmoDownload {
         }
     }
 
-    private String refreshTokens()
+    /**
+     * @return the time zone of the place of the station, or null if it is missing or unknown.
+     */
+    private static ZoneId timezoneOf(JSONObject device) {
+        if (!(device.get("place") instanceof JSONObject)) return null;
+        Object timezone = ((JSONObject) device.get("place")).get("timezone");
+        if (!(timezone instanceof String)) return null;
+        try {
+            return ZoneId.of((String) timezone);
+        } catch (DateTimeException e) {
+            logger.warn("Unknown time zone of the station: {}", timezone);
+            return null;
+        }
+    }
+
+    private String refreshTokens(NetatmoCredentials netatmoCredentials)
     {
     	String newAccessToken = null;
-    	String refreshToken = netatmoTokenFiles.readToken(NetatmoTokenType.REFRESH);
+    	NetatmoTokenFiles tokenFiles = netatmoCredentials.getTokenFiles();
+    	String refreshToken = tokenFiles.readToken(NetatmoTokenType.REFRESH);
     	HashMap<String, String> params = new HashMap<>();
         params.put("grant_type", REFRESH_TOKEN);
         params.put(REFRESH_TOKEN, refreshToken);
-        params.put("client_id", clientId);
-        params.put("client_secret", clientSecret);
+        params.put("client_id", netatmoCredentials.getClientId());
+        params.put("client_secret", netatmoCredentials.getClientSecret());
         try {
             JSONParser parser = new JSONParser();
-            String result = netatmoHttpClient.post(new URL(URL_REQUEST_TOKEN), params);
-            Object obj = parser.parse(result);
+            Object obj = parser.parse(netatmoHttpClient.postForReader(new URL(urlBase + PATH_REQUEST_TOKEN), params));
             JSONObject jsonResult = (JSONObject) obj;
             newAccessToken = (String) jsonResult.get(ACCESS_TOKEN);
             String newRefreshToken = (String) jsonResult.get(REFRESH_TOKEN);
             Long expiresIn = (Long) jsonResult.get("expires_in");
-            if(newAccessToken != null && !newAccessToken.isEmpty())
-            	netatmoTokenFiles.writeToken(NetatmoTokenType.ACCESS, newAccessToken);
+            if(newAccessToken != null && !newAccessToken.isEmpty()) {
+            	tokenFiles.writeToken(NetatmoTokenType.ACCESS, newAccessToken);
+            	netatmoCredentials.setAccessToken(newAccessToken);
+            }
             if(newRefreshToken != null && !newRefreshToken.isEmpty())
-            	netatmoTokenFiles.writeToken(NetatmoTokenType.REFRESH, newRefreshToken);
+            	tokenFiles.writeToken(NetatmoTokenType.REFRESH, newRefreshToken);
             logger.info("Refreshed access_token. New access_token expires in {} seconds", expiresIn.intValue());
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -1,6 +1,8 @@
 package com.ekkelenkamp.netatmo2wow;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -8,4 +10,13 @@ import java.util.Map;
 
 public interface NetatmoHttpClient {
     String post(URL url, Map<String, String> params) throws IOException, NoSuchAlgorithmException, KeyManagementException;
+
+    /**
+     * Post the parameters and return the response body as a reader, for parsers that can consume it without
+     * building a string first. Returns null if the request failed.
+     */
+    default Reader postForReader(URL url, Map<String, String> params) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        String response = post(url, params);
+        return response == null ? null : new StringReader(response);
+    }
 }
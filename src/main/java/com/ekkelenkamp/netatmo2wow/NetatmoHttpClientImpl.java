@@ -6,13 +6,29 @@ import org.apache.logging.log4j.LogManager;
 import javax.net.ssl.*;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 public class NetatmoHttpClientImpl implements NetatmoHttpClient {
@@ -20,6 +36,20 @@ public class NetatmoHttpClientImpl implements NetatmoHttpClient {
 	static final Logger logger = LogManager.getLogger(NetatmoHttpClientImpl.class);
 
     static final String USER_AGENT = "Java Netatmo Importer";
+    static final int READ_TIMEOUT = 10000;
+    static final int CONNECT_TIMEOUT = 15000;
+    // a getmeasure request is only duplicated once the latency of this many requests is known.
+    static final int HEDGE_MIN_SAMPLES = 20;
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong decompressedBytes = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Latencies measureLatencies = new Latencies(100);
+    private volatile Deadline deadline = Deadline.NONE;
+    private volatile ExecutorService hedgeExecutor;
+    private volatile Predicate<String> hedgePermit = accessToken -> true;
 
     @SuppressWarnings("unused")
 	private void NetatmoHttpClient() {
@@ -33,8 +63,142 @@ public class NetatmoHttpClientImpl implements NetatmoHttpClient {
         }
     }
 
+    /**
+     * Limit the timeouts of all following requests to the time left until the deadline.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Send a duplicate of a getmeasure request that takes longer than 95% of the earlier ones, and use the response
+     * that arrives first. getmeasure only reads, so sending it twice is harmless.
+     */
+    public void setHedging(boolean hedging) {
+        if (hedging && hedgeExecutor == null) {
+            hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "netatmo-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else if (!hedging && hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+            hedgeExecutor = null;
+        }
+    }
+
+    /**
+     * Asked with the access token of a request before a duplicate of it is sent; the duplicate is only sent if it
+     * returns true, e.g. to count it for the request limit.
+     */
+    public void setHedgePermit(Predicate<String> hedgePermit) {
+        this.hedgePermit = hedgePermit;
+    }
+
+    /**
+     * Number of duplicate getmeasure requests sent since this client was created.
+     */
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
     @Override
     public String post(URL url, final Map<String, String> params) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        if (isHedged(url)) {
+            return hedged(url, params);
+        }
+        Charset charset = execute(url, params);
+        return charset == null ? null : ResponseBuffer.get().toString(charset);
+    }
+
+    /**
+     * Same as {@link #post(URL, Map)}, but the response is decoded straight from a pooled byte buffer.
+     * The reader is only valid until the next request on the same thread.
+     */
+    @Override
+    public Reader postForReader(URL url, final Map<String, String> params) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        if (isHedged(url)) {
+            // the response may have been read by another thread, so it cannot be read from the buffer of this thread.
+            String response = hedged(url, params);
+            return response == null ? null : new StringReader(response);
+        }
+        Charset charset = execute(url, params);
+        return charset == null ? null : ResponseBuffer.get().reader(charset);
+    }
+
+    private boolean isHedged(URL url) {
+        return hedgeExecutor != null && url.getPath().endsWith(NetatmoDownload.PATH_GET_MEASURES_LIST);
+    }
+
+    /**
+     * Execute the request on the hedge threads, sending a duplicate when it takes longer than the 95th percentile.
+     */
+    private String hedged(URL url, final Map<String, String> params) throws IOException {
+        CompletionService<String> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        Future<String> primary = completion.submit(() -> timedExecute(url, params));
+        Future<String> duplicate = null;
+        try {
+            long p95 = measureLatencies.percentile(95, HEDGE_MIN_SAMPLES);
+            Future<String> done = null;
+            if (p95 >= 0) {
+                done = completion.poll(Math.min(p95, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+                if (done == null && hedgePermit.test(params.get("access_token"))) {
+                    logger.debug("No response of {} after {} ms, sending a duplicate request", url.getPath(), p95);
+                    hedgedRequests.incrementAndGet();
+                    duplicate = completion.submit(() -> timedExecute(url, params));
+                } else if (done == null) {
+                    logger.debug("No response of {} after {} ms, but no request left for a duplicate", url.getPath(), p95);
+                }
+            }
+            int pending = duplicate == null ? 1 : 2;
+            String response = null;
+            IOException failure = null;
+            // the first successful response is used; a failed request waits for the other one.
+            while (response == null && pending > 0) {
+                if (done == null) {
+                    done = completion.poll(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                    if (done == null) throw new SocketTimeoutException("Deadline of the run has passed");
+                }
+                try {
+                    response = done.get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                done = null;
+                pending--;
+            }
+            if (response == null && failure != null) throw failure;
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url.getPath());
+        } finally {
+            primary.cancel(true);
+            if (duplicate != null) duplicate.cancel(true);
+        }
+    }
+
+    private String timedExecute(URL url, final Map<String, String> params) throws Exception {
+        long start = System.nanoTime();
+        Charset charset = execute(url, params);
+        if (charset == null) return null;
+        measureLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return ResponseBuffer.get().toString(charset);
+    }
+
+    /**
+     * Post the parameters and read the response body into the buffer of the current thread.
+     *
+     * @return charset of the response body, or null if the request failed.
+     * @throws IOException if the deadline has passed or the circuit breaker of the endpoint is open.
+     * @throws NetatmoLimitException if Netatmo answered with 429 Too Many Requests.
+     */
+    private Charset execute(URL url, final Map<String, String> params) throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        // before the breaker is acquired, so a passed deadline neither takes nor fails the trial of a half open breaker.
+        int readTimeout = deadline.timeout(READ_TIMEOUT);
+        int connectTimeout = deadline.timeout(CONNECT_TIMEOUT);
+        CircuitBreaker breaker = breakers.computeIfAbsent(url.getHost() + url.getPath(), CircuitBreaker::new);
+        breaker.acquire();
         // Create a trust manager that does not validate certificate chains
         // The netatmo ssl keys are not working without it.
         final TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
@@ -70,40 +234,104 @@ public class NetatmoHttpClientImpl implements NetatmoHttpClient {
         connection.setDefaultUseCaches(false);
         connection.setUseCaches(false);
         connection.setRequestProperty("User-Agent", USER_AGENT);
-        connection.setReadTimeout(10000);
-        connection.setConnectTimeout(15000);
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        connection.setReadTimeout(readTimeout);
+        connection.setConnectTimeout(connectTimeout);
         connection.setRequestMethod("POST");
         connection.setDoInput(true);
         connection.setDoOutput(true);
         applyParams(connection, params);
         try {
             final int http_code = connection.getResponseCode();
-            if (http_code == 200) { /* good code */
-                String response = readStream(connection.getInputStream());
-                connection.disconnect();
-                return response;
-            } else { /* error code*/
-                String response = readStream(connection.getErrorStream());
+            if (http_code == HTTP_TOO_MANY_REQUESTS) {
+                breaker.success();
                 connection.disconnect();
-                return response;
+                throw new NetatmoLimitException("Too many requests to " + url.getPath());
+            }
+            if (http_code >= 500) {
+                breaker.failure();
+            } else {
+                breaker.success();
+            }
+            /* on an error code the error body is returned, like a good response. */
+            InputStream in = http_code == 200 ? connection.getInputStream() : connection.getErrorStream();
+            CountingInputStream received = null;
+            if (in != null) {
+                received = new CountingInputStream(in);
+                in = decompress(received, connection.getContentEncoding());
+            }
+            // the Content-Length of a compressed response is not the length of the body read.
+            long contentLength = in == received ? connection.getContentLengthLong() : -1;
+            ResponseBuffer buffer = ResponseBuffer.get().readFrom(in, contentLength);
+            connection.disconnect();
+            if (received != null) {
+                long compressed = received.getCount();
+                receivedBytes.addAndGet(compressed);
+                decompressedBytes.addAndGet(buffer.size());
+                logger.debug("Response of {}: {} bytes received, {} bytes decompressed", url.getPath(), compressed, buffer.size());
             }
+            return charsetOf(connection.getContentType());
+        } catch (NetatmoLimitException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            breaker.failure();
+            logger.warn("Request to {} failed: {}", url.getPath(), e.toString());
+            logger.debug("Request to {} failed", url.getPath(), e);
             return null;
         }
     }
 
-    private String readStream(InputStream in) {
-        String rv = null;
-        StringBuilder sb = new StringBuilder();
-        try(BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            String line = "";
-            while ((line = reader.readLine()) != null) sb.append(line);
-            rv = sb.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Wrap the stream to decompress a gzip or deflate encoded response body.
+     * Deflate is expected with zlib header, but raw deflate data is accepted as well since some servers send that.
+     */
+    static InputStream decompress(InputStream in, String contentEncoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(in);
+        }
+        if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlibHeader = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlibHeader));
+        }
+        return in;
+    }
+
+    /**
+     * Number of response body bytes received from the network since this client was created.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * Number of response body bytes after decompression since this client was created.
+     */
+    public long getDecompressedBytes() {
+        return decompressedBytes.get();
+    }
+
+    /**
+     * Charset from the Content-Type header. Netatmo sends UTF-8 json, which is also the default.
+     */
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String part : contentType.split(";")) {
+                part = part.trim();
+                if (part.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(part.substring(8).replace("\"", "").trim());
+                    } catch (IllegalArgumentException e) {
+                        logger.debug("Unsupported charset in content type {}", contentType);
+                    }
+                }
+            }
         }
-        return rv;
+        return StandardCharsets.UTF_8;
     }
 
     private boolean applyParams(HttpURLConnection connection, Map<String, String> paramsHash) {
@@ -117,7 +345,8 @@ public class NetatmoHttpClientImpl implements NetatmoHttpClient {
             os.close();
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("Cannot send the request to {}: {}", connection.getURL().getPath(), e.toString());
+            logger.debug("Cannot send the request", e);
             return false;
         }
     }
@@ -139,4 +368,72 @@ public class NetatmoHttpClientImpl implements NetatmoHttpClient {
         return result.toString();
     }
 
+    /**
+     * The latest latencies of a kind of request, to find a percentile.
+     */
+    static class Latencies {
+        private final long[] samples;
+        private int count;
+
+        Latencies(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void add(long millis) {
+            samples[count % samples.length] = millis;
+            count++;
+        }
+
+        /**
+         * @return the percentile of the latest latencies, or -1 if fewer than minSamples are known.
+         */
+        synchronized long percentile(int percentile, int minSamples) {
+            int size = Math.min(count, samples.length);
+            if (size < minSamples) return -1;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (size * percentile) / 100)];
+        }
+    }
+
+    /**
+     * Counts the bytes read from the underlying stream, i.e. the bytes on the wire before decompression.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
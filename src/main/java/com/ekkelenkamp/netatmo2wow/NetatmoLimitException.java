@@ -0,0 +1,13 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.io.IOException;
+
+/**
+ * Netatmo answered that the request limit of the application and user is reached.
+ */
+public class NetatmoLimitException extends IOException {
+
+    public NetatmoLimitException(String message) {
+        super(message);
+    }
+}
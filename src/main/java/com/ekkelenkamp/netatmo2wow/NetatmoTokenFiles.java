@@ -4,18 +4,26 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class NetatmoTokenFiles {
 
 	private File accessTokenFile;
 	private File refreshTokenFile;
+	private File usageFile;
 	
 	private static final String FILE_POSTFIX = ".token";
+	private static final String USAGE_FILE = "requests.usage";
 
 	public NetatmoTokenFiles(String tokenLocation) {
 		accessTokenFile = getTokenFileLocation(tokenLocation, NetatmoTokenType.ACCESS);
 		refreshTokenFile = getTokenFileLocation(tokenLocation, NetatmoTokenType.REFRESH);
+		usageFile = new File(accessTokenFile.getParentFile(), USAGE_FILE);
 	}
 	
 	private File getTokenFileLocation(String tokenLocation, NetatmoTokenType type) {
@@ -56,6 +64,27 @@ public class NetatmoTokenFiles {
 		}
 	}
 
+	/**
+	 * @return the lines of the request usage stored next to the tokens, empty if none has been stored.
+	 */
+	public List<String> readUsage() {
+		try {
+			return Files.readAllLines(usageFile.toPath(), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return new ArrayList<>();
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	public void writeUsage(List<String> lines) {
+		try {
+			Files.write(usageFile.toPath(), lines, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 	private File getFile(NetatmoTokenType type) {
 		return type.equals(NetatmoTokenType.ACCESS) ? accessTokenFile : refreshTokenFile;
 	}
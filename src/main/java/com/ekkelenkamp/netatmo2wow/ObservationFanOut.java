@@ -0,0 +1,134 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Uploads the same measures to several sinks at the same time. The measures are encoded once.
+ * <p/>
+ * A sink that fails with an exception gets no more measures in this run, so its checkpoint stays at its
+ * last successful upload while the other sinks continue.
+ */
+public class ObservationFanOut implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(ObservationFanOut.class);
+
+    private final List<ObservationSink> sinks;
+    private final Set<ObservationSink> failed = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final ExecutorService executor;
+
+    public ObservationFanOut(List<ObservationSink> sinks) {
+        this.sinks = new ArrayList<>(sinks);
+        this.executor = sinks.size() > 1 ? Executors.newFixedThreadPool(sinks.size()) : null;
+    }
+
+    public List<ObservationSink> getSinks() {
+        return Collections.unmodifiableList(sinks);
+    }
+
+    /**
+     * @return the earliest last upload of all sinks; measures after it are still needed by some sink.
+     * Without sinks all measures are new.
+     */
+    public long getPreviousTimeStep() {
+        if (sinks.isEmpty()) return Long.MIN_VALUE;
+        long previous = Long.MAX_VALUE;
+        for (ObservationSink sink : sinks) {
+            previous = Math.min(previous, sink.getPreviousTimeStep());
+        }
+        return previous;
+    }
+
+    /**
+     * @return true if all sinks uploaded without exceptions so far.
+     */
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    /**
+     * @return true if the sink uploaded without exceptions so far.
+     */
+    public boolean isSuccessful(ObservationSink sink) {
+        return !failed.contains(sink);
+    }
+
+    /**
+     * Encode the sorted measures and upload them to every sink, waiting until all sinks are done.
+     */
+    public void upload(List<Observation> measures) throws InterruptedException {
+        if (sinks.isEmpty()) return;
+        List<EncodedMeasure> encoded = EncodedMeasure.encode(measures);
+        if (encoded.isEmpty()) return;
+        forEachSink(sink -> upload(sink, encoded));
+    }
+
+    /**
+     * Upload the measure to every sink that did not upload it yet, ahead of the older measures, waiting until
+     * all sinks are done. The checkpoints do not move; a sink that fails uploads the measure again in order.
+     */
+    public void uploadAhead(Observation measure) throws InterruptedException {
+        if (sinks.isEmpty()) return;
+        List<EncodedMeasure> encoded = EncodedMeasure.encode(Collections.singletonList(measure));
+        if (encoded.isEmpty()) return;
+        forEachSink(sink -> uploadAhead(sink, encoded.get(0)));
+    }
+
+    private void forEachSink(Consumer<ObservationSink> action) throws InterruptedException {
+        if (executor == null) {
+            action.accept(sinks.get(0));
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (ObservationSink sink : sinks) {
+            futures.add(executor.submit(() -> action.accept(sink)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // the actions handle their own failures.
+                logger.warn("Upload failed", e.getCause());
+            }
+        }
+    }
+
+    private void upload(ObservationSink sink, List<EncodedMeasure> measures) {
+        if (failed.contains(sink)) return;
+        try {
+            sink.upload(measures);
+        } catch (Exception e) {
+            failed.add(sink);
+            logger.warn("Upload to {} failed, skipping it for the rest of this run: {}", sink.getName(), e.toString());
+        }
+    }
+
+    private void uploadAhead(ObservationSink sink, EncodedMeasure measure) {
+        if (failed.contains(sink)) return;
+        try {
+            sink.uploadAhead(measure);
+        } catch (Exception e) {
+            logger.warn("Upload of the newest measure to {} failed, uploading it in order: {}", sink.getName(), e.toString());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
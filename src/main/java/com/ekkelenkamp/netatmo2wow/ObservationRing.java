@@ -0,0 +1,123 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The latest observations of one station in a ring buffer of fixed size, stored in primitive arrays.
+ * <p/>
+ * When the buffer is full the oldest observation is overwritten. Observations that are not later than the latest one
+ * are ignored, so the buffer stays sorted.
+ */
+public class ObservationRing {
+
+    private static final int TEMPERATURE = 0;
+    private static final int HUMIDITY = 1;
+    private static final int PRESSURE = 2;
+    private static final int RAIN = 3;
+    private static final int RAIN_LAST_HOUR = 4;
+    private static final int RAIN_ACCUMULATED = 5;
+    private static final int WIND_STRENGTH = 6;
+    private static final int WIND_ANGLE = 7;
+    private static final int GUST_STRENGTH = 8;
+    private static final int GUST_ANGLE = 9;
+    private static final int COLUMNS = 10;
+
+    private final long[] timestamps;
+    private final double[][] values;
+    private int first;
+    private int size;
+
+    public ObservationRing(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.timestamps = new long[capacity];
+        this.values = new double[COLUMNS][capacity];
+    }
+
+    /**
+     * @return a buffer for the given number of hours of 5 minute observations.
+     */
+    public static ObservationRing ofHours(int hours) {
+        return new ObservationRing((int) (hours * 60L * 60L * 1000L / GapDetector.CADENCE_MILLIS));
+    }
+
+    public synchronized void add(List<Observation> observations) {
+        for (Observation observation : observations) {
+            add(observation);
+        }
+    }
+
+    public synchronized void add(Observation observation) {
+        if (size > 0 && observation.getTimestamp() <= timestamps[index(size - 1)]) return;
+        int index;
+        if (size < timestamps.length) {
+            index = index(size);
+            size++;
+        } else {
+            index = first;
+            first = (first + 1) % timestamps.length;
+        }
+        timestamps[index] = observation.getTimestamp();
+        values[TEMPERATURE][index] = observation.getTemperature();
+        values[HUMIDITY][index] = observation.getHumidity();
+        values[PRESSURE][index] = observation.getPressure();
+        values[RAIN][index] = observation.getRain();
+        values[RAIN_LAST_HOUR][index] = observation.getRainLastHour();
+        values[RAIN_ACCUMULATED][index] = observation.getRainAccumulated();
+        values[WIND_STRENGTH][index] = observation.getWindStrength();
+        values[WIND_ANGLE][index] = observation.getWindAngle();
+        values[GUST_STRENGTH][index] = observation.getWindGustStrength();
+        values[GUST_ANGLE][index] = observation.getWindGustAngle();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the latest observation, or null if the buffer is empty.
+     */
+    public synchronized Observation latest() {
+        return size == 0 ? null : get(index(size - 1));
+    }
+
+    /**
+     * @return the observations from dateBegin up to and including dateEnd (in milliseconds), sorted by time.
+     */
+    public synchronized List<Observation> range(long dateBegin, long dateEnd) {
+        List<Observation> result = new ArrayList<>();
+        // binary search for the first observation at or after dateBegin.
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[index(middle)] < dateBegin) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < size && timestamps[index(i)] <= dateEnd; i++) {
+            result.add(get(index(i)));
+        }
+        return result;
+    }
+
+    private int index(int position) {
+        return (first + position) % timestamps.length;
+    }
+
+    private Observation get(int index) {
+        return Observation.builder(timestamps[index])
+                .temperature(values[TEMPERATURE][index])
+                .humidity(values[HUMIDITY][index])
+                .pressure(values[PRESSURE][index])
+                .rain(values[RAIN][index])
+                .rainLastHour(values[RAIN_LAST_HOUR][index])
+                .rainAccumulated(values[RAIN_ACCUMULATED][index])
+                .wind(values[WIND_STRENGTH][index], values[WIND_ANGLE][index], values[GUST_STRENGTH][index], values[GUST_ANGLE][index])
+                .build();
+    }
+}
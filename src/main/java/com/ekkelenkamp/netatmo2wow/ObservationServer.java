@@ -0,0 +1,176 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the buffered observations of the stations as JSON, so dashboards do not need to call Netatmo.
+ * <ul>
+ * <li>GET /stations: the station keys.</li>
+ * <li>GET /stations/&lt;key&gt;/latest: the latest observation.</li>
+ * <li>GET /stations/&lt;key&gt;/range?from=&lt;ms&gt;&amp;to=&lt;ms&gt;: the observations in the period, both bounds optional.</li>
+ * </ul>
+ * Observations have a timestamp in milliseconds and the measured values in Netatmo units; values that were not measured are left out.
+ */
+public class ObservationServer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(ObservationServer.class);
+    private static final String STATIONS = "/stations";
+
+    private final Map<String, ObservationRing> stations = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Serve on the loopback address, so only clients on the same machine can connect.
+     */
+    public ObservationServer(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param address address to listen on; the wildcard address listens on all interfaces.
+     */
+    public ObservationServer(InetAddress address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "observation-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(STATIONS, this::handle);
+        server.start();
+        logger.info("Serving observations on {}", server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void addStation(String key, ObservationRing ring) {
+        stations.put(key, ring);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "{\"error\":\"method not allowed\"}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals(STATIONS) || path.equals(STATIONS + "/")) {
+                StringBuilder json = new StringBuilder("[");
+                for (String key : stations.keySet()) {
+                    if (json.length() > 1) json.append(',');
+                    appendString(json, key);
+                }
+                send(exchange, 200, json.append(']').toString());
+                return;
+            }
+            String[] parts = path.substring(STATIONS.length() + 1).split("/");
+            ObservationRing ring = parts.length == 2 ? stations.get(URLDecoder.decode(parts[0], StandardCharsets.UTF_8)) : null;
+            if (ring == null) {
+                send(exchange, 404, "{\"error\":\"not found\"}");
+            } else if (parts[1].equals("latest")) {
+                Observation latest = ring.latest();
+                send(exchange, latest == null ? 404 : 200, latest == null ? "{\"error\":\"no observations\"}" : appendObservation(new StringBuilder(256), latest).toString());
+            } else if (parts[1].equals("range")) {
+                Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+                List<Observation> observations = ring.range(Long.parseLong(query.getOrDefault("from", "" + Long.MIN_VALUE)),
+                        Long.parseLong(query.getOrDefault("to", "" + Long.MAX_VALUE)));
+                StringBuilder json = new StringBuilder(64 + observations.size() * 200).append('[');
+                for (int i = 0; i < observations.size(); i++) {
+                    if (i > 0) json.append(',');
+                    appendObservation(json, observations.get(i));
+                }
+                send(exchange, 200, json.append(']').toString());
+            } else {
+                send(exchange, 404, "{\"error\":\"not found\"}");
+            }
+        } catch (NumberFormatException e) {
+            send(exchange, 400, "{\"error\":\"from and to must be milliseconds\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static StringBuilder appendObservation(StringBuilder json, Observation observation) {
+        json.append("{\"timestamp\":").append(observation.getTimestamp());
+        appendValue(json, "temperature", observation.getTemperature());
+        appendValue(json, "humidity", observation.getHumidity());
+        appendValue(json, "pressure", observation.getPressure());
+        appendValue(json, "rain", observation.getRain());
+        appendValue(json, "rainLastHour", observation.getRainLastHour());
+        appendValue(json, "rainAccumulated", observation.getRainAccumulated());
+        appendValue(json, "windStrength", observation.getWindStrength());
+        appendValue(json, "windAngle", observation.getWindAngle());
+        appendValue(json, "windGustStrength", observation.getWindGustStrength());
+        appendValue(json, "windGustAngle", observation.getWindGustAngle());
+        return json.append('}');
+    }
+
+    private static void appendValue(StringBuilder json, String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        json.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> result = new HashMap<>();
+        if (rawQuery == null) return result;
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                result.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
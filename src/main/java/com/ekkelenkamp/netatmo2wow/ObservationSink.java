@@ -0,0 +1,44 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Target network to upload measures to, e.g. WOW or Weather Underground.
+ * Every sink keeps track of its own last upload, which is stored as a checkpoint under its name.
+ */
+public interface ObservationSink {
+
+    /**
+     * @return unique name of the sink and station, used as checkpoint key.
+     */
+    String getName();
+
+    /**
+     * @return timestep of the latest upload, or the timestep the sink was created with.
+     */
+    long getPreviousTimeStep();
+
+    /**
+     * @return the periods with measures the target rejected or that were left for lack of time, which the previous
+     * timestep has moved past.
+     */
+    List<TimeRange> getRejected();
+
+    /**
+     * Upload the sorted measures that are newer than the previous timestep.
+     *
+     * @return timestep of the latest upload.
+     */
+    long upload(List<EncodedMeasure> measures) throws IOException;
+
+    /**
+     * Upload a measure ahead of the older measures that have not been uploaded yet. The previous timestep does not
+     * move, so the older measures are still uploaded; the measure itself is skipped when {@link #upload(List)} reaches it.
+     *
+     * @return true if the measure has been uploaded.
+     */
+    boolean uploadAhead(EncodedMeasure measure) throws IOException;
+}
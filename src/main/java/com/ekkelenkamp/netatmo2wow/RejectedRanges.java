@@ -0,0 +1,46 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Periods in which a sink skipped measures, because the target rejected them or no time was left to upload them.
+ * The previous timestep of the sink moves past them with the next accepted measure, so these periods are not
+ * counted as uploaded and are found as gaps.
+ * <p/>
+ * A period runs from the last accepted measure before the rejected ones to the first accepted measure after them,
+ * or without end if no measure was accepted after them.
+ */
+class RejectedRanges {
+
+    private final List<TimeRange> ranges = new ArrayList<>();
+    private long lastAccepted;
+    private boolean rejected;
+
+    /**
+     * @param previousTimeStep timestep of the last measure accepted before.
+     */
+    RejectedRanges(long previousTimeStep) {
+        this.lastAccepted = previousTimeStep;
+    }
+
+    synchronized void accepted(long timestep) {
+        if (rejected) {
+            ranges.add(new TimeRange(lastAccepted, timestep));
+            rejected = false;
+        }
+        lastAccepted = timestep;
+    }
+
+    synchronized void rejected() {
+        rejected = true;
+    }
+
+    synchronized List<TimeRange> get() {
+        List<TimeRange> result = new ArrayList<>(ranges);
+        if (rejected) {
+            result.add(new TimeRange(lastAccepted, Long.MAX_VALUE));
+        }
+        return result;
+    }
+}
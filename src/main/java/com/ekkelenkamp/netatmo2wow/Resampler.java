@@ -0,0 +1,152 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates sorted measures onto a coarser interval, to upload fewer measures.
+ * <p/>
+ * Per interval:
+ * <ul>
+ * <li>temperature, humidity and pressure are averaged.</li>
+ * <li>rain is summed; rainfall in the last hour and the daily rainfall are taken from the latest measure.</li>
+ * <li>the wind direction is the direction of the average wind vector, the wind speed is averaged.</li>
+ * <li>the strongest gust is taken, with its direction.</li>
+ * </ul>
+ * The intervals end at multiples of the interval length, and the aggregated measure gets the end of its interval
+ * as timestamp, so every interval is uploaded once, on the same grid by every run.
+ * Measures are added slice by slice; an interval that is still open is kept until the next slice or {@link #flush(long)}.
+ */
+public class Resampler {
+
+    private final long intervalMillis;
+    private final List<Observation> open = new ArrayList<>();
+    private long openInterval = Long.MIN_VALUE;
+
+    /**
+     * @param intervalSeconds length of the intervals, e.g. 600 for 10 minutes.
+     */
+    public Resampler(long intervalSeconds) {
+        if (intervalSeconds <= 0) throw new IllegalArgumentException("Interval must be positive: " + intervalSeconds);
+        this.intervalMillis = intervalSeconds * 1000;
+    }
+
+    /**
+     * Add sorted measures.
+     *
+     * @return the aggregated measures of the intervals that are complete.
+     */
+    public List<Observation> add(List<Observation> measures) {
+        List<Observation> result = new ArrayList<>();
+        for (Observation measure : measures) {
+            // the interval ends at, and includes, a multiple of the interval length.
+            long interval = Math.floorDiv(measure.getTimestamp() - 1, intervalMillis);
+            if (interval != openInterval && !open.isEmpty()) {
+                result.add(aggregate(open, (openInterval + 1) * intervalMillis));
+                open.clear();
+            }
+            openInterval = interval;
+            open.add(measure);
+        }
+        return result;
+    }
+
+    /**
+     * The open interval is only aggregated when it ended, so a run that stops in the middle of an interval
+     * leaves it to the next run, which downloads the measures after the last uploaded interval again.
+     *
+     * @param completeAt time up to which all measures have been added.
+     * @return the aggregated measures of the open interval, if it ends at or before completeAt.
+     */
+    public List<Observation> flush(long completeAt) {
+        List<Observation> result = new ArrayList<>();
+        if (!open.isEmpty() && (openInterval + 1) * intervalMillis <= completeAt) {
+            result.add(aggregate(open, (openInterval + 1) * intervalMillis));
+            open.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Aggregate measures on their own, without changing the open interval of this resampler.
+     *
+     * @return the aggregated measures of the intervals that end at or before completeAt.
+     */
+    public List<Observation> resample(List<Observation> measures, long completeAt) {
+        Resampler resampler = new Resampler(intervalMillis / 1000);
+        List<Observation> result = resampler.add(measures);
+        result.addAll(resampler.flush(completeAt));
+        return result;
+    }
+
+    /**
+     * @param timestamp timestamp of the aggregated measure.
+     */
+    static Observation aggregate(List<Observation> measures, long timestamp) {
+        Average temperature = new Average();
+        Average humidity = new Average();
+        Average pressure = new Average();
+        Average windStrength = new Average();
+        double rain = Double.NaN;
+        double rainLastHour = Double.NaN;
+        double rainAccumulated = Double.NaN;
+        double windX = 0;
+        double windY = 0;
+        boolean windAngle = false;
+        double gustStrength = Double.NaN;
+        double gustAngle = Double.NaN;
+
+        for (Observation m : measures) {
+            temperature.add(m.getTemperature());
+            humidity.add(m.getHumidity());
+            pressure.add(m.getPressure());
+            windStrength.add(m.getWindStrength());
+            if (!Double.isNaN(m.getRain())) rain = (Double.isNaN(rain) ? 0.0 : rain) + m.getRain();
+            if (!Double.isNaN(m.getRainLastHour())) rainLastHour = m.getRainLastHour();
+            if (!Double.isNaN(m.getRainAccumulated())) rainAccumulated = m.getRainAccumulated();
+            if (!Double.isNaN(m.getWindAngle())) {
+                // weigh the direction with the wind speed, calm measures do not count.
+                double speed = !Double.isNaN(m.getWindStrength()) ? m.getWindStrength() : 1.0;
+                windX += speed * Math.sin(Math.toRadians(m.getWindAngle()));
+                windY += speed * Math.cos(Math.toRadians(m.getWindAngle()));
+                windAngle = true;
+            }
+            if (!Double.isNaN(m.getWindGustStrength()) && (Double.isNaN(gustStrength) || m.getWindGustStrength() > gustStrength)) {
+                gustStrength = m.getWindGustStrength();
+                gustAngle = m.getWindGustAngle();
+            }
+        }
+
+        double angle = Double.NaN;
+        if (windAngle) {
+            angle = windX == 0 && windY == 0 ? 0.0 : (Math.toDegrees(Math.atan2(windX, windY)) + 360) % 360;
+        }
+        return Observation.builder(timestamp)
+                .temperature(temperature.get())
+                .humidity(humidity.get())
+                .pressure(pressure.get())
+                .rain(rain)
+                .rainLastHour(rainLastHour)
+                .rainAccumulated(rainAccumulated)
+                .wind(windStrength.get(), angle, gustStrength, gustAngle)
+                .build();
+    }
+
+    private static class Average {
+        private double sum;
+        private int count;
+
+        void add(double value) {
+            if (!Double.isNaN(value)) {
+                sum += value;
+                count++;
+            }
+        }
+
+        double get() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reusable byte buffer for http response bodies, one per thread.
+ * <p/>
+ * The body is read once into the buffer and decoded straight from it, without intermediate strings.
+ * Readers returned by {@link #reader(Charset)} are only valid until the next response is read on the same thread.
+ */
+class ResponseBuffer {
+
+    private static final int INITIAL_SIZE = 16 * 1024;
+    // Larger buffers are not kept for the next response.
+    private static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ResponseBuffer> POOL = ThreadLocal.withInitial(ResponseBuffer::new);
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int count;
+
+    static ResponseBuffer get() {
+        return POOL.get();
+    }
+
+    /**
+     * Read the complete stream into the buffer.
+     *
+     * @param in            stream to read, closed afterwards. Null is treated as an empty body.
+     * @param contentLength expected length of the body as read from the stream, or -1 if unknown.
+     *                      Not the Content-Length of a compressed response, which is the compressed size.
+     */
+    ResponseBuffer readFrom(InputStream in, long contentLength) throws IOException {
+        count = 0;
+        if (buffer.length > MAX_POOLED_SIZE) {
+            buffer = new byte[INITIAL_SIZE];
+        }
+        if (in == null) {
+            return this;
+        }
+        // one byte more than the body, so the end of the stream is seen without growing the buffer.
+        if (contentLength >= buffer.length && contentLength < Integer.MAX_VALUE - 9) {
+            buffer = new byte[(int) contentLength + 1];
+        }
+        try (InputStream input = in) {
+            int read;
+            while ((read = input.read(buffer, count, buffer.length - count)) != -1) {
+                count += read;
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        }
+        return this;
+    }
+
+    int size() {
+        return count;
+    }
+
+    Reader reader(Charset charset) {
+        return new InputStreamReader(new ByteArrayInputStream(buffer, 0, count), charset);
+    }
+
+    String toString(Charset charset) {
+        return new String(buffer, 0, count, charset);
+    }
+}
@@ -0,0 +1,168 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Divides the stations over the nodes that run netatmo2wow, so that every station is processed by one node.
+ * <p/>
+ * Every live node (with a heartbeat that has not expired) ranks the nodes per station by rendezvous hashing;
+ * the highest ranked live node is the preferred owner of the station. A node only processes a station
+ * when it is the preferred owner and holds the lease of the station. When a node dies, its heartbeat and
+ * leases expire and its stations move to the other nodes. When a node joins, the current owners give up
+ * the stations for which the new node is preferred.
+ * <p/>
+ * The checkpoint of a station is stored in the shared location as well, and it is advanced before the lease
+ * is given up, so the next owner continues where the previous one stopped.
+ */
+public class StationLeases {
+
+    private static final Logger logger = LogManager.getLogger(StationLeases.class);
+
+    public static final long DEFAULT_TTL_MILLIS = 15L * 60L * 1000L;
+
+    private final LeaseBackend backend;
+    private final String nodeId;
+    private final long ttlMillis;
+
+    /**
+     * @param ttlMillis lifetime of leases and heartbeats. Must be longer than the interval between runs.
+     */
+    public StationLeases(LeaseBackend backend, String nodeId, long ttlMillis) {
+        this.backend = backend;
+        this.nodeId = nodeId;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Announce this node and try to take the lease of the station.
+     *
+     * @return the held lease, or null if another node processes the station. The lease is renewed
+     * until it is closed.
+     */
+    public Lease acquire(String station) {
+        backend.heartbeat(nodeId, ttlMillis);
+        Set<String> nodes = backend.liveNodes();
+        nodes.add(nodeId);
+        String preferred = preferredNode(station, nodes);
+        if (!preferred.equals(nodeId)) {
+            // hand the station over to the preferred node, in case this node held it before.
+            backend.release(station, nodeId);
+            logger.info("Station {} is assigned to node {}", station, preferred);
+            return null;
+        }
+        if (!backend.tryAcquire(station, nodeId, ttlMillis)) {
+            logger.info("Station {} is still leased by another node", station);
+            return null;
+        }
+        return new Lease(station);
+    }
+
+    /**
+     * Rendezvous hashing: the node with the highest score for the station.
+     */
+    static String preferredNode(String station, Set<String> nodes) {
+        String preferred = null;
+        long bestScore = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long score = score(station, node);
+            if (preferred == null || score > bestScore || (score == bestScore && node.compareTo(preferred) < 0)) {
+                preferred = node;
+                bestScore = score;
+            }
+        }
+        return preferred;
+    }
+
+    private static long score(String station, String node) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (char c : (station + '\u0000' + node).toCharArray()) {
+            h = (h ^ c) * 0x100000001B3L;
+        }
+        // finalizer of murmur3, spreads the bits of similar names.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A held station lease. Renewed in the background until closed; closing keeps the lease until it expires,
+     * so the next run of this node can take it again without competition.
+     * <p/>
+     * The lease is lost when another node takes it over, or when it could not be renewed before it expired.
+     * The run must then stop, see {@link #onLost(Runnable)}, otherwise both nodes upload the same measures.
+     */
+    public class Lease implements AutoCloseable {
+        private final String station;
+        private volatile long validUntil;
+        private volatile boolean lost;
+        private volatile Runnable lostListener = () -> { };
+        private final ScheduledExecutorService renewal = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private Lease(String station) {
+            this.station = station;
+            this.validUntil = System.currentTimeMillis() + ttlMillis;
+            long period = Math.max(ttlMillis / 3, 1000);
+            renewal.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private void renew() {
+            try {
+                long now = System.currentTimeMillis();
+                backend.heartbeat(nodeId, ttlMillis);
+                if (backend.tryAcquire(station, nodeId, ttlMillis)) {
+                    validUntil = now + ttlMillis;
+                    return;
+                }
+                logger.warn("Lease of station {} has been taken over by another node", station);
+                lose();
+            } catch (RuntimeException e) {
+                logger.warn("Cannot renew lease of station {}: {}", station, e.getMessage());
+                if (System.currentTimeMillis() >= validUntil) {
+                    logger.warn("Lease of station {} has expired", station);
+                    lose();
+                }
+            }
+        }
+
+        private void lose() {
+            lost = true;
+            renewal.shutdown();
+            lostListener.run();
+        }
+
+        /**
+         * @return true if another node may process the station now.
+         */
+        public boolean isLost() {
+            return lost || System.currentTimeMillis() >= validUntil;
+        }
+
+        /**
+         * Run the listener when the lease is lost, on the renewal thread; at once if it has been lost already.
+         */
+        public void onLost(Runnable listener) {
+            lostListener = listener;
+            if (isLost()) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public void close() {
+            renewal.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.ekkelenkamp.netatmo2wow;
+
+/**
+ * Period from begin up to and including end, in milliseconds.
+ */
+public final class TimeRange {
+
+    private final long begin;
+    private final long end;
+
+    public TimeRange(long begin, long end) {
+        if (end < begin) throw new IllegalArgumentException("End " + end + " before begin " + begin);
+        this.begin = begin;
+        this.end = end;
+    }
+
+    public long getBegin() {
+        return begin;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public boolean overlaps(TimeRange other) {
+        return begin <= other.end && other.begin <= end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TimeRange)) return false;
+        TimeRange other = (TimeRange) o;
+        return begin == other.begin && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(begin) * 31 + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + new java.util.Date(begin) + " - " + new java.util.Date(end) + "]";
+    }
+}
@@ -0,0 +1,168 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upload with the Weather Underground personal weather station protocol, which PWSWeather supports as well.
+ * <p/>
+ * https://weatherstation.wunderground.com/weatherstation/updateweatherstation.php?ID=KCASANFR5&PASSWORD=XXXXXX&dateutc=2000-01-01+10%3A32%3A35&winddir=230&windspeedmph=12&windgustmph=12&tempf=70&rainin=0&baromin=29.1&dewptf=68.2&humidity=90&softwaretype=vws%20versionxx&action=updateraw
+ */
+public class WeatherUndergroundUpload implements ObservationSink {
+
+    public static final String WUNDERGROUND_URL = "https://weatherstation.wunderground.com/weatherstation/updateweatherstation.php";
+    public static final String PWSWEATHER_URL = "https://pwsupdate.pwsweather.com/api/v1/submitwx";
+
+    private static final Logger log = LogManager.getLogger(WeatherUndergroundUpload.class);
+
+    private int connectionTimeout = 60000;
+    private int readTimeout = 60000;
+    private Deadline deadline = Deadline.NONE;
+    private final CircuitBreaker breaker;
+    private final Backfill backfill = new Backfill();
+    private final RejectedRanges rejected;
+    private final String name;
+    private final String url;
+    private final String stationId;
+    private final String password;
+    private long previousTimeStep;
+    private String softwareType = Info.SOFTWARE_NAME + " " + Info.SOFTWARE_VERSION;
+
+    /**
+     * @param name prefix of the checkpoint key, e.g. "wu" or "pws".
+     * @param url  upload url, {@link #WUNDERGROUND_URL} or {@link #PWSWEATHER_URL}.
+     */
+    public WeatherUndergroundUpload(String name, String url, String stationId, String password, long previousTimeStep) {
+        this.name = name + "-" + stationId;
+        this.url = url;
+        this.stationId = stationId;
+        this.password = password;
+        this.previousTimeStep = previousTimeStep;
+        this.rejected = new RejectedRanges(previousTimeStep);
+        this.breaker = new CircuitBreaker(this.name);
+    }
+
+    /**
+     * Limit the timeouts of the uploads to the time left until the deadline.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Upload the measures older than a measure uploaded ahead at most one per interval.
+     */
+    public void setBackfillInterval(long intervalMillis) {
+        backfill.setInterval(intervalMillis);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getPreviousTimeStep() {
+        return previousTimeStep;
+    }
+
+    @Override
+    public List<TimeRange> getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long upload(List<EncodedMeasure> measures) throws IOException {
+        long lastUpload = previousTimeStep;
+        int numberOfSuccesfulUploads = 0;
+        try {
+            for (EncodedMeasure measure : measures) {
+                if (measure.getTimestamp() <= previousTimeStep)
+                    continue; // was already uploaded.
+
+                if (backfill.takeUploadedAhead(measure.getTimestamp())) {
+                    rejected.accepted(measure.getTimestamp());
+                    lastUpload = Math.max(lastUpload, measure.getTimestamp());
+                    continue;
+                }
+                if (!backfill.pace(measure.getTimestamp(), deadline)) {
+                    log.info("No time left to upload the older {} measurements, leaving them as a gap.", name);
+                    rejected.rejected();
+                    break;
+                }
+                if (send(measure)) {
+                    rejected.accepted(measure.getTimestamp());
+                    numberOfSuccesfulUploads++;
+                    lastUpload = Math.max(lastUpload, measure.getTimestamp());
+                } else {
+                    rejected.rejected();
+                }
+            }
+        } finally {
+            log.info("Number of new {} measurements uploaded: {}", name, numberOfSuccesfulUploads);
+            previousTimeStep = lastUpload;
+        }
+        return lastUpload;
+    }
+
+    @Override
+    public boolean uploadAhead(EncodedMeasure measure) throws IOException {
+        if (measure.getTimestamp() <= previousTimeStep) return false;
+        if (!send(measure)) return false;
+        log.info("Uploaded the {} measurement of {} ahead of the older ones", name, new java.util.Date(measure.getTimestamp()));
+        backfill.uploadedAhead(measure.getTimestamp());
+        return true;
+    }
+
+    /**
+     * @return true if the measure was accepted.
+     */
+    private boolean send(EncodedMeasure measure) throws IOException {
+        // before the breaker is acquired, so a passed deadline does not take the trial of a half open breaker.
+        int connectTimeout = deadline.timeout(connectionTimeout);
+        int readTimeout = deadline.timeout(this.readTimeout);
+        breaker.acquire();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + "?" + requestParameters(measure)).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                breaker.success();
+                return true;
+            }
+            // the endpoint is reachable, only server errors count as failures.
+            if (responseCode >= 500) breaker.failure(); else breaker.success();
+            log.warn("Invalid response code {} from {}.", responseCode, name);
+            return false;
+        } catch (IOException e) {
+            breaker.failure();
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String requestParameters(EncodedMeasure measure) {
+        StringBuilder requestBuilder = new StringBuilder(256);
+        requestBuilder.append("ID=").append(URLEncoder.encode(stationId, StandardCharsets.UTF_8));
+        requestBuilder.append("&PASSWORD=").append(URLEncoder.encode(password, StandardCharsets.UTF_8));
+        requestBuilder.append("&softwaretype=").append(URLEncoder.encode(softwareType, StandardCharsets.UTF_8));
+        requestBuilder.append("&action=updateraw");
+        for (Map.Entry<String, String> parameter : measure.getParameters().entrySet()) {
+            requestBuilder.append('&').append(parameter.getKey()).append('=');
+            requestBuilder.append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8));
+        }
+        return requestBuilder.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.ekkelenkamp.netatmo2wow;
 
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
 import com.ekkelenkamp.netatmo2wow.model.Measures;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -12,9 +13,8 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.Map;
 
 /**
  * Documentation from WOW website:
@@ -33,22 +33,79 @@ import java.util.TimeZone;
  * http://wow.metoffice.gov.uk/automaticreading?siteid=123456&siteAuthenticationKey=654321&dateutc=2011-02-02+10%3A32%3A55&winddir=230&windspeedmph=12&windgustmph=12& windgustdir=25&humidity=90&dewptf=68.2&tempf=70&rainin=0&dailyrainin=5&baromin=29.1&soiltempf=25&soilmoisture=25&visibility=25&softwaretype=weathersoftware1.0
  */
 
-public class WowUpload {
+public class WowUpload implements ObservationSink {
 
     public static final String WOW_URL = "http://wow.metoffice.gov.uk/automaticreading?";
 
     private static final Logger log = LogManager.getLogger(WowUpload.class);
 
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'%20'HH'%3A'mm'%3A'ss");
-
     private int connectionTimeout = 60000;
     private int readTimeout = 60000;
+    private Deadline deadline = Deadline.NONE;
+    private final CircuitBreaker breaker = new CircuitBreaker("WOW");
+    private final Backfill backfill = new Backfill();
+    private final RejectedRanges rejected;
     private long previousTimeStep;
+    private String wowUrl;
+    private String siteId;
+    private int awsPin;
     private String softwareType = Info.SOFTWARE_NAME + " " + Info.SOFTWARE_VERSION;
 
     public WowUpload(long previousTimeStep) {
+        this(previousTimeStep, WOW_URL);
+    }
+
+    /**
+     * @param wowUrl url of the WOW automatic reading endpoint, e.g. a local stand-in server for testing.
+     */
+    public WowUpload(long previousTimeStep, String wowUrl) {
+        this(previousTimeStep, wowUrl, null, 0);
+    }
+
+    /**
+     * Upload to the given site when used as {@link ObservationSink}.
+     */
+    public WowUpload(long previousTimeStep, String wowUrl, String siteId, int awsPin) {
         this.previousTimeStep = previousTimeStep;
+        this.rejected = new RejectedRanges(previousTimeStep);
+        this.wowUrl = wowUrl;
+        this.siteId = siteId;
+        this.awsPin = awsPin;
+    }
+
+    /**
+     * The WOW site id, which is also the checkpoint key of earlier versions.
+     */
+    @Override
+    public String getName() {
+        return siteId;
+    }
+
+    /**
+     * @return timestep of the latest upload of this instance, or the one it was created with.
+     */
+    @Override
+    public long getPreviousTimeStep() {
+        return previousTimeStep;
+    }
 
+    @Override
+    public List<TimeRange> getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Limit the timeouts of the uploads to the time left until the deadline.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Upload the measures older than a measure uploaded ahead at most one per interval.
+     */
+    public void setBackfillInterval(long intervalMillis) {
+        backfill.setInterval(intervalMillis);
     }
 
     /**
@@ -61,56 +118,108 @@ public class WowUpload {
      * @throws IOException
      */
     public long upload(List<Measures> measures, final String siteId, final int awsPin) throws IOException {
-        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return send(EncodedMeasure.encode(Measures.toObservations(measures)), siteId, awsPin);
+    }
+
+    @Override
+    public long upload(List<EncodedMeasure> measures) throws IOException {
+        return send(measures, siteId, awsPin);
+    }
+
+    @Override
+    public boolean uploadAhead(EncodedMeasure measure) throws IOException {
+        if (measure.getTimestamp() <= previousTimeStep) return false;
+        if (!post(measure, siteId, awsPin)) return false;
+        log.info("Uploaded the WOW measurement of {} ahead of the older ones", new java.util.Date(measure.getTimestamp()));
+        backfill.uploadedAhead(measure.getTimestamp());
+        return true;
+    }
+
+    private long send(List<EncodedMeasure> measures, final String siteId, final int awsPin) throws IOException {
         long lastUpload = previousTimeStep;
         int numberOfSuccesfulUploads = 0;
         
-        if (!measures.isEmpty())
-        {        
-	        Double accumuledRain = measures.get(measures.size()-1).getRainAccumulated();
-	        for (Measures measure : measures) 
-	        {
-	            if (measure.getTimestamp() <= previousTimeStep || measure.getTemperature() == null)
-	                continue; // was already uploaded.
-	            
-	            if (measure.getRainAccumulated() == null)
-	            {
-	            	measure.setRainAccumulated(accumuledRain);
-	            }
-	            
-	            HttpURLConnection connection = getHttpURLConnection(new URL(WOW_URL));
-	            try 
-	            {
-	                setRequestParameters(connection, siteId, awsPin, softwareType, measure);
-	                log.debug("Start execution of WOW upload. URL={}", connection);
-	                connection.connect();
-	                int responseCode = connection.getResponseCode();
-	                if (responseCode == HttpURLConnection.HTTP_OK) 
-	                {
-	                    log.debug("Successfully uploaded data for siteId {}.", siteId);
-	                    numberOfSuccesfulUploads++;
-	                    if (measure.getTimestamp() > lastUpload)
-	                    {
-	                        lastUpload = measure.getTimestamp();
-	                    }
-	                } 
-	                else 
-	                {
-	                    log.warn("Invalid response code {}.", responseCode);
-	                }
-	            } 
-	            finally 
-	            {
-	                connection.disconnect();
-	            }
-	        }
+        try
+        {
+            for (EncodedMeasure measure : measures) 
+            {
+                if (measure.getTimestamp() <= previousTimeStep)
+                    continue; // was already uploaded.
+
+                if (backfill.takeUploadedAhead(measure.getTimestamp()))
+                {
+                    rejected.accepted(measure.getTimestamp());
+                    lastUpload = Math.max(lastUpload, measure.getTimestamp());
+                    continue;
+                }
+                if (!backfill.pace(measure.getTimestamp(), deadline))
+                {
+                    log.info("No time left to upload the older WOW measurements, leaving them as a gap.");
+                    rejected.rejected();
+                    break;
+                }
+                if (post(measure, siteId, awsPin))
+                {
+                    rejected.accepted(measure.getTimestamp());
+                    numberOfSuccesfulUploads++;
+                    if (measure.getTimestamp() > lastUpload)
+                    {
+                        lastUpload = measure.getTimestamp();
+                    }
+                }
+                else
+                {
+                    rejected.rejected();
+                }
+            }
+        }
+        finally
+        {
+            log.info("Number of new WOW measurements uploaded: {}", numberOfSuccesfulUploads);
+            // following uploads with this instance continue after the measures uploaded now, also after a failure.
+            previousTimeStep = lastUpload;
         }
-        
-        log.info("Number of new WOW measurements uploaded: {}", numberOfSuccesfulUploads);
         return lastUpload;
     }
 
-    private static void setRequestParameters(HttpURLConnection connection, String siteId, int awsPin, String softwareType, Measures measure) throws IOException {
+    /**
+     * @return true if WOW accepted the measure.
+     */
+    private boolean post(EncodedMeasure measure, final String siteId, final int awsPin) throws IOException {
+        // before the breaker is acquired, so a passed deadline does not take the trial of a half open breaker.
+        int connectTimeout = deadline.timeout(connectionTimeout);
+        int readTimeout = deadline.timeout(this.readTimeout);
+        breaker.acquire();
+        HttpURLConnection connection = getHttpURLConnection(new URL(wowUrl), connectTimeout, readTimeout);
+        try 
+        {
+            setRequestParameters(connection, siteId, awsPin, softwareType, measure);
+            log.debug("Start execution of WOW upload. URL={}", connection);
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) 
+            {
+                log.debug("Successfully uploaded data for siteId {}.", siteId);
+                breaker.success();
+                return true;
+            } 
+            // the endpoint is reachable, only server errors count as failures.
+            if (responseCode >= 500) breaker.failure(); else breaker.success();
+            log.warn("Invalid response code {}.", responseCode);
+            return false;
+        } 
+        catch (IOException e)
+        {
+            breaker.failure();
+            throw e;
+        }
+        finally 
+        {
+            connection.disconnect();
+        }
+    }
+
+    private static void setRequestParameters(HttpURLConnection connection, String siteId, int awsPin, String softwareType, EncodedMeasure measure) throws IOException {
 
         StringBuilder requestBuilder = new StringBuilder(10);
         String urlString = connection.getURL().toString();
@@ -126,15 +235,18 @@ public class WowUpload {
         requestBuilder.append("softwaretype=");
         requestBuilder.append(URLEncoder.encode(softwareType, StandardCharsets.UTF_8));
         
-        for (String parameter : measure.getWowParameters().keySet()) 
+        for (Map.Entry<String, String> parameter : measure.getParameters().entrySet()) 
         {
             requestBuilder.append('&');
-            requestBuilder.append(parameter);
+            requestBuilder.append(parameter.getKey());
             requestBuilder.append('=');
-            requestBuilder.append(URLEncoder.encode(measure.getWowParameters().get(parameter), StandardCharsets.UTF_8));
+            requestBuilder.append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8));
         }
         String parameterString = requestBuilder.toString();
-        log.debug("Executing URL command: {}{}", urlString, parameterString);
+        if (log.isDebugEnabled()) {
+            // the AWS pin is not logged.
+            log.debug("Executing URL command: {}{}", urlString, parameterString.replaceFirst("siteAuthenticationKey=[^&]*", "siteAuthenticationKey=***"));
+        }
         try (OutputStream outputStream = connection.getOutputStream();
         		BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));) {
             bufferedWriter.write(parameterString);
@@ -142,10 +254,10 @@ public class WowUpload {
         }
     }
 
-    private HttpURLConnection getHttpURLConnection(URL url) throws IOException {
+    private static HttpURLConnection getHttpURLConnection(URL url, int connectTimeout, int readTimeout) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("POST");
-        connection.setConnectTimeout(connectionTimeout);
+        connection.setConnectTimeout(connectTimeout);
         connection.setReadTimeout(readTimeout);
         connection.setDoOutput(true);
         connection.setDoInput(true);
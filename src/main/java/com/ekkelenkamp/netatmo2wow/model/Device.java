@@ -1,5 +1,6 @@
 package com.ekkelenkamp.netatmo2wow.model;
 
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -9,6 +10,7 @@ public class Device
 {
     private Map<String, List<String>> moduleIds = new HashMap<String, List<String>>();
     private Map<String, String> moduleDataTypes = new HashMap<String, String>();
+    private ZoneId timezone;
     
     public void addModuleToDevice(String deviceId, String moduleId, String dataType) 
     {
@@ -40,5 +42,18 @@ public class Device
     public Map<String, List<String>> getDevices() 
     {
         return moduleIds;
-    }    
+    }
+
+    /**
+     * @return the time zone of the station, in which its days start; null if Netatmo did not report it.
+     */
+    public ZoneId getTimezone()
+    {
+        return timezone;
+    }
+
+    public void setTimezone(ZoneId timezone)
+    {
+        this.timezone = timezone;
+    }
 }
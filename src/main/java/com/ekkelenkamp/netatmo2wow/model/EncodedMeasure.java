@@ -0,0 +1,58 @@
+package com.ekkelenkamp.netatmo2wow.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A measure converted once to the upload parameters (imperial units) shared by WOW, Weather Underground and PWSWeather.
+ * Immutable, so one instance can be uploaded to several targets at the same time.
+ */
+public final class EncodedMeasure {
+
+    private final long timestamp;
+    private final Map<String, String> parameters;
+
+    public EncodedMeasure(long timestamp, Map<String, String> parameters) {
+        this.timestamp = timestamp;
+        this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Encode the sorted measures that have a temperature; measures without one are not uploaded.
+     * Measures without daily rainfall get the daily rainfall of the last measure; the measures themselves are not changed.
+     */
+    public static List<EncodedMeasure> encode(List<Observation> measures) {
+        List<EncodedMeasure> result = new ArrayList<>(measures.size());
+        if (measures.isEmpty()) {
+            return result;
+        }
+        double accumulatedRain = measures.get(measures.size() - 1).getRainAccumulated();
+        for (Observation observation : measures) {
+            if (Double.isNaN(observation.getTemperature())) continue;
+            if (Double.isNaN(observation.getRainAccumulated()) && !Double.isNaN(accumulatedRain)) {
+                observation = observation.withRainAccumulated(accumulatedRain);
+            }
+            result.add(encode(observation));
+        }
+        return result;
+    }
+
+    public static EncodedMeasure encode(Observation observation) {
+        return new EncodedMeasure(observation.getTimestamp(), observation.getWowParameters());
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedMeasure{timestamp=" + timestamp + ", parameters=" + parameters + '}';
+    }
+}
@@ -0,0 +1,279 @@
+package com.ekkelenkamp.netatmo2wow.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable weather observation at one point in time, safe to share between threads.
+ * <p/>
+ * Values that were not measured are NaN. {@link #merge(Observation)} and the {@code with} methods return new instances.
+ * Units are the Netatmo units: Celsius, percent, mbar, mm and km/h.
+ */
+public final class Observation implements Comparable<Observation> {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final long timestamp;
+    private final double temperature;
+    private final double humidity;
+    private final double rain;
+    private final double rainLastHour;
+    private final double rainAccumulated;
+    private final double windStrength;
+    private final double windAngle;
+    private final double windGustStrength;
+    private final double windGustAngle;
+    private final double pressure;
+
+    private Observation(Builder builder) {
+        this.timestamp = builder.timestamp;
+        this.temperature = builder.temperature;
+        this.humidity = builder.humidity;
+        this.rain = builder.rain;
+        this.rainLastHour = builder.rainLastHour;
+        this.rainAccumulated = builder.rainAccumulated;
+        this.windStrength = builder.windStrength;
+        this.windAngle = builder.windAngle;
+        this.windGustStrength = builder.windGustStrength;
+        this.windGustAngle = builder.windGustAngle;
+        this.pressure = builder.pressure;
+    }
+
+    public static Builder builder(long timestamp) {
+        return new Builder(timestamp);
+    }
+
+    public Builder toBuilder() {
+        return toBuilder(timestamp);
+    }
+
+    private Builder toBuilder(long timestamp) {
+        Builder builder = new Builder(timestamp);
+        builder.temperature = temperature;
+        builder.humidity = humidity;
+        builder.rain = rain;
+        builder.rainLastHour = rainLastHour;
+        builder.rainAccumulated = rainAccumulated;
+        builder.windStrength = windStrength;
+        builder.windAngle = windAngle;
+        builder.windGustStrength = windGustStrength;
+        builder.windGustAngle = windGustAngle;
+        builder.pressure = pressure;
+        return builder;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public double getHumidity() {
+        return humidity;
+    }
+
+    public double getRain() {
+        return rain;
+    }
+
+    public double getRainLastHour() {
+        return rainLastHour;
+    }
+
+    public double getRainAccumulated() {
+        return rainAccumulated;
+    }
+
+    public double getWindStrength() {
+        return windStrength;
+    }
+
+    public double getWindAngle() {
+        return windAngle;
+    }
+
+    public double getWindGustStrength() {
+        return windGustStrength;
+    }
+
+    public double getWindGustAngle() {
+        return windGustAngle;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    public Observation withTimestamp(long timestamp) {
+        return toBuilder(timestamp).build();
+    }
+
+    public Observation withRainLastHour(double rainLastHour) {
+        return toBuilder().rainLastHour(rainLastHour).build();
+    }
+
+    public Observation withRainAccumulated(double rainAccumulated) {
+        return toBuilder().rainAccumulated(rainAccumulated).build();
+    }
+
+    /**
+     * Merge with an observation of another module at about the same time.
+     * For every value, the value of the most recent observation prevails; missing values are taken from the other one.
+     * The result keeps the timestamp of this observation.
+     */
+    public Observation merge(Observation other) {
+        boolean otherPrevails = other.timestamp > timestamp;
+        Builder builder = toBuilder();
+        builder.temperature = pick(temperature, other.temperature, otherPrevails);
+        builder.humidity = pick(humidity, other.humidity, otherPrevails);
+        builder.rain = pick(rain, other.rain, otherPrevails);
+        builder.rainLastHour = pick(rainLastHour, other.rainLastHour, otherPrevails);
+        builder.rainAccumulated = pick(rainAccumulated, other.rainAccumulated, otherPrevails);
+        builder.windStrength = pick(windStrength, other.windStrength, otherPrevails);
+        builder.windAngle = pick(windAngle, other.windAngle, otherPrevails);
+        builder.windGustStrength = pick(windGustStrength, other.windGustStrength, otherPrevails);
+        builder.windGustAngle = pick(windGustAngle, other.windGustAngle, otherPrevails);
+        builder.pressure = pick(pressure, other.pressure, otherPrevails);
+        return builder.build();
+    }
+
+    private static double pick(double own, double other, boolean otherPrevails) {
+        if (otherPrevails) {
+            return Double.isNaN(other) ? own : other;
+        }
+        return Double.isNaN(own) ? other : own;
+    }
+
+    /**
+     * The values converted to the WOW (and Weather Underground) upload parameters.
+     */
+    public Map<String, String> getWowParameters() {
+        Map<String, String> map = new HashMap<>();
+        if (!Double.isNaN(temperature)) {
+            // convert from celcius to farenheit.
+            map.put("tempf", format(((temperature * 9) / 5) + 32));
+        }
+        if (!Double.isNaN(humidity)) {
+            map.put("humidity", "" + humidity);
+        }
+        if (!Double.isNaN(pressure)) {
+            // see: http://weatherfaqs.org.uk/node/72
+            // convert from mbar to inches
+            map.put("baromin", format(pressure * 0.02953));
+        }
+        if (!Double.isNaN(rainAccumulated)) {
+            map.put("dailyrainin", format(rainAccumulated * 0.03937007874015748)); // accumulated rainfall in the last day.
+        }
+        if (!Double.isNaN(rainLastHour)) {
+            // convert from mm to inches.
+            map.put("rainin", format(rainLastHour * 0.03937007874015748)); // accumulated rainfall in the last hour.
+        }
+        if (!Double.isNaN(windStrength)) {
+            // mph = kph / 1.609
+            map.put("windspeedmph", format(windStrength / 1.609));
+        }
+        if (!Double.isNaN(windAngle)) {
+            map.put("winddir", format(windAngle));
+        }
+        if (!Double.isNaN(windGustStrength)) {
+            map.put("windgustmph", format(windGustStrength / 1.609));
+        }
+        if (!Double.isNaN(windGustAngle)) {
+            map.put("windgustdir", format(windGustAngle));
+        }
+        map.put("dateutc", DATE_FORMAT.format(Instant.ofEpochMilli(timestamp)));
+        return map;
+    }
+
+    /**
+     * Same output as DecimalFormat("0.##"): at most two decimals, rounded half even, without trailing zeros;
+     * except that values rounding to zero give "0" instead of "-0".
+     */
+    static String format(double value) {
+        return new BigDecimal(value).setScale(2, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public int compareTo(Observation o) {
+        return Long.compare(timestamp, o.timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "Observation{" +
+                "date=" + Instant.ofEpochMilli(timestamp) +
+                ", temperature=" + temperature +
+                ", humidity=" + humidity +
+                ", rainfall=" + rain +
+                ", rainLastHour=" + rainLastHour +
+                ", pressure=" + pressure +
+                '}';
+    }
+
+    public static final class Builder {
+        private final long timestamp;
+        private double temperature = Double.NaN;
+        private double humidity = Double.NaN;
+        private double rain = Double.NaN;
+        private double rainLastHour = Double.NaN;
+        private double rainAccumulated = Double.NaN;
+        private double windStrength = Double.NaN;
+        private double windAngle = Double.NaN;
+        private double windGustStrength = Double.NaN;
+        private double windGustAngle = Double.NaN;
+        private double pressure = Double.NaN;
+
+        private Builder(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public Builder temperature(double temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        public Builder humidity(double humidity) {
+            this.humidity = humidity;
+            return this;
+        }
+
+        public Builder rain(double rain) {
+            this.rain = rain;
+            return this;
+        }
+
+        public Builder rainLastHour(double rainLastHour) {
+            this.rainLastHour = rainLastHour;
+            return this;
+        }
+
+        public Builder rainAccumulated(double rainAccumulated) {
+            this.rainAccumulated = rainAccumulated;
+            return this;
+        }
+
+        public Builder wind(double strength, double angle, double gustStrength, double gustAngle) {
+            this.windStrength = strength;
+            this.windAngle = angle;
+            this.windGustStrength = gustStrength;
+            this.windGustAngle = gustAngle;
+            return this;
+        }
+
+        public Builder pressure(double pressure) {
+            this.pressure = pressure;
+            return this;
+        }
+
+        public Observation build() {
+            return new Observation(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackfillTest {
+
+    @Test
+    public void uploadedAheadIsTakenOnce() {
+        Backfill backfill = new Backfill();
+        backfill.uploadedAhead(1000L);
+
+        assertFalse(backfill.takeUploadedAhead(500L));
+        assertTrue(backfill.takeUploadedAhead(1000L));
+        assertFalse(backfill.takeUploadedAhead(1000L));
+    }
+
+    @Test
+    public void withoutIntervalTheBacklogIsNotPaced() throws InterruptedIOException {
+        Backfill backfill = new Backfill();
+        backfill.uploadedAhead(1000L);
+
+        long start = System.currentTimeMillis();
+        for (long timestep = 0; timestep < 10; timestep++) {
+            assertTrue(backfill.pace(timestep, Deadline.unlimited()));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void backlogIsPacedByTheInterval() throws InterruptedIOException {
+        Backfill backfill = new Backfill();
+        backfill.setInterval(100);
+        backfill.uploadedAhead(1000L);
+
+        long start = System.currentTimeMillis();
+        assertTrue(backfill.pace(100L, Deadline.unlimited()));
+        assertTrue(backfill.pace(200L, Deadline.unlimited()));
+        assertTrue(backfill.pace(300L, Deadline.unlimited()));
+
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void measuresNotOlderThanTheNewestAheadAreNotPaced() throws InterruptedIOException {
+        Backfill backfill = new Backfill();
+        backfill.setInterval(60_000);
+        backfill.uploadedAhead(1000L);
+
+        assertTrue(backfill.pace(100L, Deadline.unlimited()));
+        long start = System.currentTimeMillis();
+        assertTrue(backfill.pace(1000L, Deadline.unlimited()));
+        assertTrue(backfill.pace(2000L, Deadline.unlimited()));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void backlogIsNotPacedBeyondTheDeadline() throws InterruptedIOException {
+        Backfill backfill = new Backfill();
+        backfill.setInterval(60_000);
+        backfill.uploadedAhead(1000L);
+        Deadline deadline = Deadline.after(10_000);
+
+        assertTrue(backfill.pace(100L, deadline));
+        long start = System.currentTimeMillis();
+        assertFalse(backfill.pace(200L, deadline));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+}
@@ -0,0 +1,109 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private CheckpointStore store;
+
+    @Before
+    public void createStore() {
+        directory = folder.getRoot().toPath();
+        store = new CheckpointStore(directory.toString(), false);
+    }
+
+    @Test
+    public void missingCheckpointGivesTheDefault() {
+        assertEquals(42L, store.read("site", 42L));
+    }
+
+    @Test
+    public void checkpointOnlyMovesForward() {
+        assertEquals(1000L, store.advance("site", 1000L));
+        assertEquals(1000L, store.advance("site", 500L));
+        assertEquals(2000L, store.advance("site", 2000L));
+        store.flush();
+
+        assertEquals(2000L, new CheckpointStore(directory.toString(), true).read("site", 0L));
+    }
+
+    @Test
+    public void keysAreIndependent() {
+        store.advance("site 1", 1000L);
+        store.advance("site/2", 2000L);
+
+        assertEquals(1000L, store.read("site 1", 0L));
+        assertEquals(2000L, store.read("site/2", 0L));
+        assertFalse(Files.exists(directory.resolve("checkpoint-site_1.timestep.tmp")));
+    }
+
+    @Test
+    public void unreadableCheckpointGivesTheDefault() throws IOException {
+        Files.write(directory.resolve("checkpoint-site.timestep"), "garbage".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(7L, store.read("site", 7L));
+        assertEquals(100L, store.advance("site", 100L));
+    }
+
+    @Test
+    public void coverageIsMergedAndOldPeriodsAreForgotten() {
+        assertTrue(store.readCoverage("site").isEmpty());
+
+        store.addCoverage("site", new TimeRange(0, 100), 0);
+        store.addCoverage("site", new TimeRange(300, 400), 0);
+        store.addCoverage("site", new TimeRange(100, 200), 0);
+        assertEquals(Arrays.asList(new TimeRange(0, 200), new TimeRange(300, 400)), store.readCoverage("site"));
+
+        store.addCoverage("site", new TimeRange(500, 600), 250);
+        assertEquals(Arrays.asList(new TimeRange(300, 400), new TimeRange(500, 600)), store.readCoverage("site"));
+    }
+
+    @Test
+    public void unreadableCoverageStartsAgain() throws IOException {
+        Files.write(directory.resolve("coverage-site.ranges"), "x y\n".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(store.readCoverage("site").isEmpty());
+        store.addCoverage("site", new TimeRange(0, 100), 0);
+        assertEquals(Collections.singletonList(new TimeRange(0, 100)), store.readCoverage("site"));
+    }
+
+    @Test
+    public void derivedMetricsAreStored() {
+        assertNull(store.readDerivedMetrics("station"));
+        DerivedMetrics metrics = new DerivedMetrics(ZoneId.of("Europe/Amsterdam"));
+        metrics.add(Fixtures.measure(1000L, Double.NaN, 0.5));
+
+        store.writeDerivedMetrics("station", metrics);
+
+        DerivedMetrics read = store.readDerivedMetrics("station");
+        assertEquals(ZoneId.of("Europe/Amsterdam"), read.getZone());
+        assertEquals(metrics.format(), read.format());
+    }
+
+    @Test
+    public void unreadableDerivedMetricsAreIgnored() throws IOException {
+        Files.write(directory.resolve("metrics-station.derived"), "unknown 1\n".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(store.readDerivedMetrics("station"));
+    }
+}
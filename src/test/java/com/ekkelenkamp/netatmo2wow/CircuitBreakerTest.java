@@ -0,0 +1,73 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterTheThresholdOfFailuresInARow() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000);
+        breaker.failure();
+        breaker.failure();
+        breaker.acquire();
+        assertFalse(breaker.isOpen());
+
+        breaker.failure();
+
+        assertTrue(breaker.isOpen());
+        assertRefused(breaker);
+    }
+
+    @Test
+    public void successResetsTheFailures() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60_000);
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    @Test
+    public void letsOneRequestThroughAfterTheOpenPeriod() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        breaker.failure();
+        assertFalse(breaker.isOpen());
+
+        breaker.acquire();
+        assertRefused(breaker);
+
+        breaker.success();
+        breaker.acquire();
+        breaker.acquire();
+    }
+
+    @Test
+    public void failedTrialOpensAgain() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        breaker.failure();
+        breaker.acquire();
+
+        breaker.failure();
+
+        // the open period of 0 ms has passed, so the next trial is let through.
+        breaker.acquire();
+        assertRefused(breaker);
+    }
+
+    private static void assertRefused(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail("Circuit breaker should be open");
+        } catch (IOException e) {
+            // expected.
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.loadtest.MockNetatmoServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.HOUR;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CliTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockNetatmoServer server;
+    private Path tokens;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new MockNetatmoServer(1, 3, 0, 0);
+        server.start(0, 4);
+        tokens = folder.newFolder("tokens").toPath();
+        Files.write(tokens.resolve("access.token"), MockNetatmoServer.accessToken(0).getBytes(StandardCharsets.UTF_8));
+        Files.write(tokens.resolve("refresh.token"), MockNetatmoServer.refreshToken(0).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void withoutUploadTargetOnlyExports() throws IOException {
+        Path export = tokens.resolve("measures.n2w");
+
+        cli("-t", "3600", "--export", export.toString()).parse();
+
+        assertTrue(new MeasuresExportReader(export).read(Long.MIN_VALUE, Long.MAX_VALUE, observation -> { }) > 0);
+        assertEquals(0, server.getUploads());
+    }
+
+    @Test
+    public void stationIdWithoutPasswordIsRejected() {
+        for (String[] options : Arrays.asList(new String[]{"--wu_id", "KXX1"}, new String[]{"--pws_password", "secret"})) {
+            try {
+                cli(options).parse();
+                fail("Upload target without password");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(" must be given together"));
+            }
+        }
+        assertEquals(0, server.getTokenRequests() + server.getStationRequests());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void servedObservationsNeedAnUploadTargetToIdentifyTheStation() {
+        cli("-t", "3600", "--daemon", "300", "--http_port", "0").parse();
+    }
+
+    @Test
+    public void coverageOfATargetThatFailsPartwayEndsAtItsLastUpload() throws Exception {
+        long begin = (System.currentTimeMillis() - 24 * HOUR) / HOUR * HOUR;
+        long end = begin + 3 * HOUR;
+        RecordingSink healthy = new RecordingSink("healthy", begin);
+        RecordingSink failing = new RecordingSink("failing", begin);
+        failing.failAt = begin + HOUR;
+        MeasuresPipeline pipeline = new MeasuresPipeline(new StubDownload(), Arrays.asList(healthy, failing), 3600, 2);
+        CheckpointStore checkpoints = new CheckpointStore(folder.newFolder("checkpoints").toString(), false);
+
+        assertFalse(run(pipeline, begin, end));
+        Cli.addCoverage(checkpoints, pipeline, key -> begin, Long.MIN_VALUE);
+
+        assertEquals(Collections.singletonList(new TimeRange(begin, end - 5 * MINUTE)), checkpoints.readCoverage("healthy"));
+        assertEquals(Collections.singletonList(new TimeRange(begin, begin + 55 * MINUTE)), checkpoints.readCoverage("failing"));
+    }
+
+    @Test
+    public void coverageOfAGapFillThatFailsPartwayEndsAtItsLastUpload() throws Exception {
+        long begin = (System.currentTimeMillis() - 24 * HOUR) / HOUR * HOUR;
+        TimeRange gap = new TimeRange(begin, begin + 2 * HOUR);
+        RecordingSink target = new RecordingSink("target", gap.getBegin());
+        target.failAt = begin + HOUR;
+        GapFillSink sink = new GapFillSink(target, Collections.singletonList(gap));
+        MeasuresPipeline pipeline = new MeasuresPipeline(new StubDownload(), Collections.singletonList(sink), 3600, 2);
+        CheckpointStore checkpoints = new CheckpointStore(folder.newFolder("checkpoints").toString(), false);
+        checkpoints.addCoverage("target", new TimeRange(begin - HOUR, begin), 0);
+        checkpoints.addCoverage("target", new TimeRange(gap.getEnd(), gap.getEnd() + HOUR), 0);
+
+        assertFalse(run(pipeline, begin - HOUR, gap.getEnd()));
+        Cli.addCoverage(checkpoints, pipeline, key -> gap.getBegin(), Long.MIN_VALUE);
+
+        assertEquals(Arrays.asList(new TimeRange(begin - HOUR, begin + 55 * MINUTE), new TimeRange(gap.getEnd(), gap.getEnd() + HOUR)),
+                checkpoints.readCoverage("target"));
+    }
+
+    /**
+     * @return false if the run failed.
+     */
+    private static boolean run(MeasuresPipeline pipeline, long begin, long end) throws Exception {
+        try {
+            pipeline.run("client", "secret", begin / 1000, end / 1000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Cli cli(String... options) {
+        List<String> args = new ArrayList<>(Arrays.asList("--netatmo_url", server.getNetatmoUrl(),
+                "-c", "client", "-s", "secret", "-l", tokens.toString()));
+        args.addAll(Arrays.asList(options));
+        return new Cli(args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,116 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CredentialPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void requestsRotateOverTheCredentialsWithTheMostRequestsLeft() throws InterruptedException {
+        NetatmoCredentials first = credentials("first", 2);
+        NetatmoCredentials second = credentials("second", 2);
+        CredentialPool pool = new CredentialPool(Arrays.asList(first, second));
+
+        assertSame(first, pool.next());
+        assertSame(second, pool.next());
+        assertSame(first, pool.next());
+        assertSame(second, pool.next());
+    }
+
+    @Test
+    public void credentialsThatReachedTheLimitAreSkipped() throws InterruptedException {
+        NetatmoCredentials first = credentials("first", 10);
+        NetatmoCredentials second = credentials("second", 10);
+        CredentialPool pool = new CredentialPool(Arrays.asList(first, second));
+
+        pool.backOff("first-token");
+
+        assertSame(second, pool.next());
+        assertSame(second, pool.next());
+    }
+
+    @Test
+    public void hourLimitIsNotWaitedForBeyondTheDeadline() throws InterruptedException {
+        CredentialPool pool = new CredentialPool(Collections.singletonList(credentials("app", 1)));
+        pool.setDeadline(Deadline.after(1000));
+        pool.next();
+
+        try {
+            pool.next();
+            fail("The hour limit is reached");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("deadline"));
+        }
+    }
+
+    @Test
+    public void tenSecondLimitAllowsTheNextRequestTenSecondsAfterTheOldest() throws InterruptedException {
+        NetatmoCredentials app = credentials("app", NetatmoCredentials.REQUESTS_PER_HOUR);
+        CredentialPool pool = new CredentialPool(Collections.singletonList(app));
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < NetatmoCredentials.REQUESTS_PER_10_SECONDS; i++) {
+            pool.next();
+        }
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, app.remaining(now));
+        assertTrue(app.availableAt(now) >= start + 10000);
+        assertTrue(app.availableAt(now) <= now + 10000);
+        assertEquals(NetatmoCredentials.REQUESTS_PER_10_SECONDS, app.remaining(now + 10001));
+    }
+
+    @Test
+    public void savedUsageIsCountedByTheNextRun() throws IOException, InterruptedException {
+        File tokens = folder.newFolder("tokens");
+        new File(tokens, "access.token").createNewFile();
+        new File(tokens, "refresh.token").createNewFile();
+        CredentialPool run = new CredentialPool(Collections.singletonList(credentials("app", 10, tokens)));
+        run.next();
+        run.next();
+        run.backOff("app-token");
+        run.saveUsage();
+
+        NetatmoCredentials next = credentials("app", 10, tokens);
+        new CredentialPool(Collections.singletonList(next));
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, next.remaining(now));
+        assertEquals(8, next.remaining(now + 60000));
+    }
+
+    @Test
+    public void duplicateIsCountedUntilTheLimitIsReached() throws InterruptedException {
+        NetatmoCredentials app = credentials("app", 2);
+        CredentialPool pool = new CredentialPool(Collections.singletonList(app));
+
+        assertSame(app, pool.next());
+        assertTrue(pool.recordDuplicate("app-token"));
+        assertFalse(pool.recordDuplicate("app-token"));
+        assertFalse(pool.recordDuplicate("unknown-token"));
+    }
+
+    private static NetatmoCredentials credentials(String clientId, int requestsPerHour) {
+        return credentials(clientId, requestsPerHour, null);
+    }
+
+    private static NetatmoCredentials credentials(String clientId, int requestsPerHour, File tokens) {
+        NetatmoCredentials credentials = new NetatmoCredentials(clientId, "secret", tokens == null ? null : new NetatmoTokenFiles(tokens.getAbsolutePath()), requestsPerHour);
+        credentials.setAccessToken(clientId + "-token");
+        return credentials;
+    }
+}
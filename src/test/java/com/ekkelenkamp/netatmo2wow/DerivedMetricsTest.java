@@ -0,0 +1,122 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.HOUR;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DerivedMetricsTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final ZoneId AMSTERDAM = ZoneId.of("Europe/Amsterdam");
+    private static final long MIDNIGHT = ZonedDateTime.of(2026, 1, 15, 0, 0, 0, 0, UTC).toInstant().toEpochMilli();
+
+    @Test
+    public void rainLastHourIsOnlySetAfterAnHour() {
+        DerivedMetrics metrics = new DerivedMetrics(UTC);
+        Observation first = metrics.add(measure(MIDNIGHT, Double.NaN, 0.1));
+        Observation beforeHour = metrics.add(measure(MIDNIGHT + 55 * MINUTE, Double.NaN, 0.1));
+
+        assertTrue(Double.isNaN(first.getRainLastHour()));
+        assertTrue(Double.isNaN(beforeHour.getRainLastHour()));
+    }
+
+    @Test
+    public void rainOlderThanAnHourLeavesTheWindow() {
+        DerivedMetrics metrics = new DerivedMetrics(UTC);
+        Observation last = null;
+        // 13 measures of 0.1 mm, 5 minutes apart; the first is an hour before the last.
+        for (int i = 0; i <= 12; i++) {
+            last = metrics.add(measure(MIDNIGHT + i * 5 * MINUTE, Double.NaN, 0.1));
+        }
+
+        assertEquals(1.2, last.getRainLastHour(), 1e-9);
+
+        Observation later = metrics.add(measure(MIDNIGHT + 2 * HOUR, Double.NaN, 0.5));
+        assertEquals(0.5, later.getRainLastHour(), 1e-9);
+    }
+
+    @Test
+    public void olderMeasuresAreIgnored() {
+        DerivedMetrics metrics = new DerivedMetrics(UTC);
+        assertNotNull(metrics.add(measure(MIDNIGHT, Double.NaN, 0.1)));
+
+        assertNull(metrics.add(measure(MIDNIGHT, Double.NaN, 0.1)));
+        assertNull(metrics.add(measure(MIDNIGHT - MINUTE, Double.NaN, 0.1)));
+        assertEquals(MIDNIGHT, metrics.getLastTimestamp());
+    }
+
+    @Test
+    public void dailyRainStartsFromTheReportedRainAndResetsAtMidnight() {
+        DerivedMetrics metrics = new DerivedMetrics(UTC);
+        metrics.add(measure(MIDNIGHT + HOUR, Double.NaN, 0.1));
+        assertFalse(metrics.hasDailyRain());
+
+        metrics.startDailyRain(MIDNIGHT + 30 * MINUTE, 2.0);
+        assertTrue(metrics.hasDailyRain());
+        Observation sameDay = metrics.add(measure(MIDNIGHT + 23 * HOUR, Double.NaN, 0.3));
+        assertEquals(2.3, sameDay.getRainAccumulated(), 1e-9);
+
+        Observation nextDay = metrics.add(measure(MIDNIGHT + 24 * HOUR, Double.NaN, 0.2));
+        assertEquals(0.2, nextDay.getRainAccumulated(), 1e-9);
+    }
+
+    @Test
+    public void dailyRainIsNotStartedFromAnotherDay() {
+        DerivedMetrics metrics = new DerivedMetrics(UTC);
+        metrics.add(measure(MIDNIGHT + HOUR, Double.NaN, 0.1));
+
+        metrics.startDailyRain(MIDNIGHT - HOUR, 2.0);
+
+        assertFalse(metrics.hasDailyRain());
+    }
+
+    @Test
+    public void daysStartAtMidnightInTheZoneOfTheStation() {
+        // 23:30 UTC is half past midnight in Amsterdam in winter.
+        long lateEvening = MIDNIGHT - 30 * MINUTE;
+
+        assertFalse(new DerivedMetrics(UTC).isSameDay(lateEvening, MIDNIGHT));
+        assertTrue(new DerivedMetrics(AMSTERDAM).isSameDay(lateEvening, MIDNIGHT));
+    }
+
+    @Test
+    public void stateSurvivesFormatAndParse() {
+        DerivedMetrics metrics = new DerivedMetrics(AMSTERDAM);
+        // more measures than the initial capacity of the window.
+        for (int i = 0; i < 40; i++) {
+            metrics.add(measure(MIDNIGHT + i * 5 * MINUTE, Double.NaN, 0.1));
+        }
+        metrics.startDailyRain(MIDNIGHT, 4.0);
+
+        DerivedMetrics parsed = DerivedMetrics.parse(metrics.format());
+
+        assertEquals(metrics.format(), parsed.format());
+        assertEquals(AMSTERDAM, parsed.getZone());
+        assertEquals(metrics.getLastTimestamp(), parsed.getLastTimestamp());
+        Observation next = measure(MIDNIGHT + 40 * 5 * MINUTE, Double.NaN, 0.1);
+        Observation expected = metrics.add(next);
+        next = parsed.add(next);
+        assertEquals(expected.getRainLastHour(), next.getRainLastHour(), 1e-9);
+        assertEquals(expected.getRainAccumulated(), next.getRainAccumulated(), 1e-9);
+    }
+
+    @Test
+    public void stateWithoutZoneIsReadInTheSystemZone() {
+        DerivedMetrics parsed = DerivedMetrics.parse(Arrays.asList("first 0", "last 1000", "rain 1000 100", ""));
+
+        assertEquals(ZoneId.systemDefault(), parsed.getZone());
+        assertEquals(1000L, parsed.getLastTimestamp());
+    }
+}
@@ -0,0 +1,19 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+/**
+ * Observations and times shared by the tests.
+ */
+final class Fixtures {
+
+    static final long MINUTE = 60L * 1000L;
+    static final long HOUR = 60L * MINUTE;
+
+    private Fixtures() {
+    }
+
+    static Observation measure(long timestamp, double temperature, double rain) {
+        return Observation.builder(timestamp).temperature(temperature).rain(rain).build();
+    }
+}
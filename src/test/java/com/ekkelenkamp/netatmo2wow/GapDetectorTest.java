@@ -0,0 +1,66 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GapDetectorTest {
+
+    private static final long CADENCE = GapDetector.CADENCE_MILLIS;
+
+    @Test
+    public void mergeJoinsOverlappingAndNearbyRanges() {
+        List<TimeRange> merged = GapDetector.merge(Arrays.asList(
+                new TimeRange(50, 60),
+                new TimeRange(0, 10),
+                new TimeRange(5, 20),
+                new TimeRange(25, 30)), 5);
+
+        assertEquals(Arrays.asList(new TimeRange(0, 30), new TimeRange(50, 60)), merged);
+    }
+
+    @Test
+    public void nothingIsAGapWithoutCoverage() {
+        assertTrue(GapDetector.gaps(Collections.emptyList(), 0, 100 * MINUTE).isEmpty());
+    }
+
+    @Test
+    public void timeBeforeTheFirstUploadIsNotAGap() {
+        List<TimeRange> gaps = GapDetector.gaps(Collections.singletonList(new TimeRange(60 * MINUTE, 120 * MINUTE)),
+                0, 120 * MINUTE);
+
+        assertTrue(gaps.isEmpty());
+    }
+
+    @Test
+    public void holesLongerThanTheCadenceAreGaps() {
+        List<TimeRange> covered = Arrays.asList(
+                new TimeRange(0, 60 * MINUTE),
+                // a hole of one cadence holds no measure.
+                new TimeRange(60 * MINUTE + CADENCE, 90 * MINUTE),
+                new TimeRange(120 * MINUTE, 150 * MINUTE));
+
+        List<TimeRange> gaps = GapDetector.gaps(covered, 30 * MINUTE, 180 * MINUTE);
+
+        assertEquals(Arrays.asList(
+                new TimeRange(90 * MINUTE, 120 * MINUTE),
+                new TimeRange(150 * MINUTE, 180 * MINUTE)), gaps);
+    }
+
+    @Test
+    public void gapsAreLimitedToThePeriod() {
+        List<TimeRange> covered = Arrays.asList(
+                new TimeRange(0, 10 * MINUTE),
+                new TimeRange(100 * MINUTE, 110 * MINUTE));
+
+        assertEquals(Collections.singletonList(new TimeRange(50 * MINUTE, 100 * MINUTE)),
+                GapDetector.gaps(covered, 50 * MINUTE, 110 * MINUTE));
+        assertTrue(GapDetector.gaps(covered, 0, 10 * MINUTE + CADENCE).isEmpty());
+    }
+}
@@ -0,0 +1,47 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GapFillSinkTest {
+
+    @Test
+    public void onlyMeasuresStrictlyInsideTheGapsArePassedOn() throws Exception {
+        RecordingSink target = new RecordingSink("target", 0);
+        GapFillSink sink = new GapFillSink(target, Arrays.asList(new TimeRange(100, 300), new TimeRange(500, 700)));
+
+        sink.upload(Arrays.asList(measure(50), measure(100), measure(200), measure(300), measure(400), measure(600)));
+
+        assertEquals(Arrays.asList(200L, 600L), target.uploaded);
+    }
+
+    @Test
+    public void withoutMeasuresInTheGapsTheTargetIsNotCalled() throws Exception {
+        RecordingSink target = new RecordingSink("target", 42);
+        GapFillSink sink = new GapFillSink(target, Collections.singletonList(new TimeRange(100, 300)));
+
+        assertEquals(42, sink.upload(Collections.singletonList(measure(400))));
+        assertTrue(target.uploaded.isEmpty());
+    }
+
+    @Test
+    public void onlyMeasuresInTheGapsAreUploadedAhead() throws Exception {
+        RecordingSink target = new RecordingSink("target", 0);
+        GapFillSink sink = new GapFillSink(target, Collections.singletonList(new TimeRange(100, 300)));
+
+        assertFalse(sink.uploadAhead(measure(400)));
+        assertTrue(sink.uploadAhead(measure(250)));
+        assertEquals(Collections.singletonList(250L), target.uploadedAhead);
+    }
+
+    private static EncodedMeasure measure(long timestamp) {
+        return new EncodedMeasure(timestamp, Collections.emptyMap());
+    }
+}
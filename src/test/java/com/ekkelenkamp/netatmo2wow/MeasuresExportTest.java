@@ -0,0 +1,136 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MeasuresExportTest {
+
+    private static final long BEGIN = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void createFile() {
+        file = folder.getRoot().toPath().resolve("measures.n2w");
+    }
+
+    @Test
+    public void valuesSurviveTheRoundTrip() throws IOException {
+        Observation measure = measure(BEGIN, 12.34, 0.101).toBuilder()
+                .humidity(87.0)
+                .pressure(1013.25)
+                .rainLastHour(1.212)
+                .rainAccumulated(3.303)
+                .wind(4.5, 270.0, 9.75, 265.0)
+                .build();
+        export(Arrays.asList(measure, measure(BEGIN + 5 * MINUTE, -3.21, Double.NaN)));
+
+        List<Observation> observations = read(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(2, observations.size());
+        Observation first = observations.get(0);
+        assertEquals(BEGIN, first.getTimestamp());
+        assertEquals(12.34, first.getTemperature(), 1e-9);
+        assertEquals(87.0, first.getHumidity(), 1e-9);
+        assertEquals(1013.25, first.getPressure(), 1e-9);
+        assertEquals(0.101, first.getRain(), 1e-9);
+        assertEquals(1.212, first.getRainLastHour(), 1e-9);
+        assertEquals(3.303, first.getRainAccumulated(), 1e-9);
+        assertEquals(4.5, first.getWindStrength(), 1e-9);
+        assertEquals(270.0, first.getWindAngle(), 1e-9);
+        assertEquals(9.75, first.getWindGustStrength(), 1e-9);
+        assertEquals(265.0, first.getWindGustAngle(), 1e-9);
+        Observation second = observations.get(1);
+        assertEquals(BEGIN + 5 * MINUTE, second.getTimestamp());
+        assertEquals(-3.21, second.getTemperature(), 1e-9);
+        assertTrue(Double.isNaN(second.getRain()));
+        assertTrue(Double.isNaN(second.getHumidity()));
+    }
+
+    @Test
+    public void valuesAreRoundedToTheScale() throws IOException {
+        export(Arrays.asList(measure(BEGIN, 12.345678, Double.NaN)));
+
+        assertEquals(12.35, read(Long.MIN_VALUE, Long.MAX_VALUE).get(0).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void readsOnlyTheRequestedPeriodAcrossBlocks() throws IOException {
+        List<Observation> measures = new ArrayList<>();
+        int rows = MeasuresExport.BLOCK_ROWS * 2 + 10;
+        for (int i = 0; i < rows; i++) {
+            measures.add(measure(BEGIN + i * MINUTE, i / 100.0, Double.NaN));
+        }
+        assertEquals(rows, export(measures));
+
+        assertEquals(rows, read(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        long from = BEGIN + (MeasuresExport.BLOCK_ROWS - 5) * MINUTE;
+        long to = BEGIN + (MeasuresExport.BLOCK_ROWS + 4) * MINUTE;
+        List<Observation> observations = read(from, to);
+        assertEquals(10, observations.size());
+        assertEquals(from, observations.get(0).getTimestamp());
+        assertEquals(to, observations.get(9).getTimestamp());
+        assertEquals((MeasuresExport.BLOCK_ROWS - 5) / 100.0, observations.get(0).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void measuresNotLaterThanTheLastAreSkipped() throws IOException {
+        assertEquals(2, export(Arrays.asList(
+                measure(BEGIN, 1.0, Double.NaN),
+                measure(BEGIN + MINUTE, 2.0, Double.NaN),
+                measure(BEGIN + MINUTE, 3.0, Double.NaN),
+                measure(BEGIN - MINUTE, 4.0, Double.NaN))));
+
+        List<Observation> observations = read(Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, observations.size());
+        assertEquals(2.0, observations.get(1).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void rangeComesFromTheBlockHeaders() throws IOException {
+        export(Arrays.asList(measure(BEGIN, -5.5, Double.NaN), measure(BEGIN + MINUTE, 21.25, Double.NaN)));
+
+        MeasuresExportReader reader = new MeasuresExportReader(file);
+        assertArrayEquals(new double[]{-5.5, 21.25}, reader.range("temperature"), 1e-9);
+        assertNull(reader.range("rain"));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRefused() throws IOException {
+        Files.writeString(file, "timestamp,temperature\n");
+        read(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private long export(List<Observation> measures) throws IOException {
+        try (MeasuresExport export = new MeasuresExport(file)) {
+            export.write(measures);
+            return export.getNumberOfRows();
+        }
+    }
+
+    private List<Observation> read(long dateBegin, long dateEnd) throws IOException {
+        List<Observation> observations = new ArrayList<>();
+        new MeasuresExportReader(file).read(dateBegin, dateEnd, observations::add);
+        return observations;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.loadtest.MockNetatmoServer;
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.HOUR;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MeasuresPipelineTest {
+
+    private static final long CADENCE = GapDetector.CADENCE_MILLIS;
+
+    @Test
+    public void slicesFollowEachOtherAndOverlappingMeasuresAreUploadedOnce() throws Exception {
+        long begin = (System.currentTimeMillis() - 24 * HOUR) / HOUR * HOUR;
+        StubDownload download = new StubDownload();
+        download.overlapMillis = NetatmoDownload.TIME_STEP_TOLERANCE;
+        RecordingSink sink = new RecordingSink("site", begin - CADENCE);
+
+        new MeasuresPipeline(download, Collections.singletonList(sink), 3600, 2).run("client", "secret", begin / 1000, begin / 1000 + 5400);
+
+        long first = begin / 1000;
+        assertEquals(Arrays.asList(new TimeRange(first, first + 3600), new TimeRange(first + 3600, first + 5400)), download.slices);
+        // the overlap of the last slice brings the measure at the end of the period.
+        assertEquals(timestamps(begin, begin + 90 * MINUTE + 1), sink.uploaded);
+    }
+
+    @Test
+    public void failingDownloadStopsTheRunAfterTheSlicesBeforeIt() throws Exception {
+        long begin = (System.currentTimeMillis() - 24 * HOUR) / HOUR * HOUR;
+        StubDownload download = new StubDownload();
+        download.failAt = begin / 1000 + 2 * 3600;
+        RecordingSink sink = new RecordingSink("site", begin - CADENCE);
+        MeasuresPipeline pipeline = new MeasuresPipeline(download, Collections.singletonList(sink), 3600, 2);
+
+        try {
+            pipeline.run("client", "secret", begin / 1000, begin / 1000 + 4 * 3600);
+            fail("The download of the third slice fails");
+        } catch (IllegalStateException e) {
+            assertEquals("Netatmo is down", e.getMessage());
+        }
+
+        assertEquals(timestamps(begin, begin + 2 * HOUR), sink.uploaded);
+        assertEquals(begin + 2 * HOUR - CADENCE, sink.getPreviousTimeStep());
+    }
+
+    @Test
+    public void fullQueuesStopTheDownloadUntilTheUploadCatchesUp() throws Exception {
+        long begin = (System.currentTimeMillis() - 24 * HOUR) / HOUR * HOUR;
+        StubDownload download = new StubDownload();
+        CountDownLatch uploading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink("site", begin - CADENCE) {
+            @Override
+            public long upload(List<EncodedMeasure> measures) throws IOException {
+                uploading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.upload(measures);
+            }
+        };
+        MeasuresPipeline pipeline = new MeasuresPipeline(download, Collections.singletonList(slow), 600, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> run = executor.submit(() -> pipeline.run("client", "secret", begin / 1000, begin / 1000 + 24 * 600));
+            assertTrue(uploading.await(10, TimeUnit.SECONDS));
+            Thread.sleep(200);
+
+            // one slice in upload, one in each queue and one held by each of the fetch and derive stages.
+            assertTrue(download.slices.size() <= 5);
+
+            release.countDown();
+            run.get(10, TimeUnit.SECONDS);
+            assertEquals(24, download.slices.size());
+            assertEquals(24 * 2, slow.uploaded.size());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void derivedMetricsContinueAfterTheLastDerivedMeasure() throws Exception {
+        long begin = System.currentTimeMillis() / 1000 - 2 * 3600;
+        RecordingSink sink = new RecordingSink("site", begin * 1000 - CADENCE);
+        MeasuresPipeline first = new MeasuresPipeline(new StubDownload(), Collections.singletonList(sink), 3600, 2);
+        first.run("client", "secret", begin, 0);
+        DerivedMetrics metrics = first.getDerivedMetrics();
+        long last = metrics.getLastTimestamp();
+
+        StubDownload download = new StubDownload();
+        MeasuresPipeline next = new MeasuresPipeline(download, Collections.singletonList(sink), 3600, 2);
+        next.setDerivedMetrics(metrics);
+        next.run("client", "secret", begin, 0);
+
+        assertEquals(last / 1000 + 1, download.slices.get(0).getBegin());
+    }
+
+    @Test
+    public void derivedMetricsStartAgainForATargetBehindThem() throws Exception {
+        long begin = System.currentTimeMillis() / 1000 - 2 * 3600;
+        MeasuresPipeline first = new MeasuresPipeline(new StubDownload(), Collections.singletonList(new RecordingSink("site", begin * 1000 - CADENCE)), 3600, 2);
+        first.run("client", "secret", begin, 0);
+
+        StubDownload download = new StubDownload();
+        MeasuresPipeline next = new MeasuresPipeline(download, Collections.singletonList(new RecordingSink("other", begin * 1000 - CADENCE)), 3600, 2);
+        next.setDerivedMetrics(first.getDerivedMetrics());
+        next.run("client", "secret", begin, 0);
+
+        assertEquals(begin, download.slices.get(0).getBegin());
+    }
+
+    @Test
+    public void newestMeasureIsUploadedAheadWithTheRainOfTheLastHour() throws Exception {
+        long begin = System.currentTimeMillis() / 1000 - 4 * 3600;
+        List<EncodedMeasure> ahead = new ArrayList<>();
+        RecordingSink sink = new RecordingSink("site", begin * 1000) {
+            @Override
+            public synchronized boolean uploadAhead(EncodedMeasure measure) {
+                ahead.add(measure);
+                return super.uploadAhead(measure);
+            }
+        };
+        MeasuresPipeline pipeline = new MeasuresPipeline(new StubDownload(), Collections.singletonList(sink), 1800, 2);
+        pipeline.setNewestFirst(true);
+
+        pipeline.run("client", "secret", begin, 0);
+
+        assertEquals(1, ahead.size());
+        assertEquals(sink.getPreviousTimeStep(), ahead.get(0).getTimestamp());
+        // 12 measures of 0.1 mm in the last hour: 1.2 mm, 0.047 inch.
+        assertEquals("0.05", ahead.get(0).getParameters().get("rainin"));
+    }
+
+    @Test
+    public void measureUploadedAheadIsNotUploadedAgain() throws Exception {
+        MockNetatmoServer server = new MockNetatmoServer(1, 1, 0, 0);
+        server.start(0, 2);
+        try {
+            long begin = (System.currentTimeMillis() - 4 * HOUR) / CADENCE * CADENCE;
+            WowUpload wow = new WowUpload(begin, server.getWowUrl(), "1", 1);
+            MeasuresPipeline pipeline = new MeasuresPipeline(new StubDownload(), Collections.singletonList(wow), 3600, 2);
+            pipeline.setNewestFirst(true);
+
+            pipeline.run("client", "secret", begin / 1000, 0);
+
+            assertEquals((wow.getPreviousTimeStep() - begin) / CADENCE, server.getUploads());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the timestamps of the measures from begin up to end.
+     */
+    private static List<Long> timestamps(long begin, long end) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long timestamp = begin; timestamp < end; timestamp += CADENCE) {
+            timestamps.add(timestamp);
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.loadtest.MockNetatmoServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class NetatmoDownloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockNetatmoServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new MockNetatmoServer(1, 3, 0, 0);
+        server.start(0, 2);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void tokenRefreshCountsEveryRequest() throws IOException {
+        Path tokens = folder.newFolder("tokens").toPath();
+        Files.write(tokens.resolve("access.token"), "expired".getBytes(StandardCharsets.UTF_8));
+        Files.write(tokens.resolve("refresh.token"), MockNetatmoServer.refreshToken(0).getBytes(StandardCharsets.UTF_8));
+        NetatmoCredentials credentials = new NetatmoCredentials("client", "secret", new NetatmoTokenFiles(tokens.toString()));
+        NetatmoDownload download = new NetatmoDownload(new NetatmoHttpClientImpl(), new CredentialPool(Collections.singletonList(credentials)), server.getNetatmoUrl());
+
+        download.connect("client", "secret");
+
+        assertEquals(1, server.getTokenRequests());
+        assertEquals(2, server.getStationRequests());
+        assertEquals(NetatmoCredentials.REQUESTS_PER_10_SECONDS - 3, credentials.remaining(System.currentTimeMillis()));
+        assertEquals(MockNetatmoServer.accessToken(0), credentials.getAccessToken());
+    }
+}
@@ -0,0 +1,63 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NetatmoHttpClientImplTest {
+
+    private static final String BODY = "{\"body\":{\"1700000000\":[12.5,80]},\"status\":\"ok\"}";
+
+    @Test
+    public void gzipBodyIsDecompressed() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(BODY, decompress(compressed.toByteArray(), "gzip"));
+        assertEquals(BODY, decompress(compressed.toByteArray(), "x-gzip"));
+    }
+
+    @Test
+    public void deflateBodyWithZlibHeaderIsDecompressed() throws IOException {
+        assertEquals(BODY, decompress(deflate(false), "deflate"));
+    }
+
+    @Test
+    public void rawDeflateBodyIsDecompressed() throws IOException {
+        assertEquals(BODY, decompress(deflate(true), "deflate"));
+    }
+
+    @Test
+    public void identityBodyIsReadAsIs() throws IOException {
+        InputStream in = new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8));
+
+        assertSame(in, NetatmoHttpClientImpl.decompress(in, null));
+        assertSame(in, NetatmoHttpClientImpl.decompress(in, "identity"));
+    }
+
+    private static byte[] deflate(boolean raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            out.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String decompress(byte[] body, String contentEncoding) throws IOException {
+        InputStream in = NetatmoHttpClientImpl.decompress(new ByteArrayInputStream(body), contentEncoding);
+        return ResponseBuffer.get().readFrom(in, -1).toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationFanOutTest {
+
+    private static final long BEGIN = 1_700_000_000_000L;
+
+    @Test
+    public void failingTargetGetsNoMoreMeasuresWhileTheOthersContinue() throws InterruptedException {
+        RecordingSink first = new RecordingSink("first", BEGIN);
+        RecordingSink failing = new RecordingSink("failing", BEGIN);
+        failing.failAt = BEGIN + 15 * MINUTE;
+        RecordingSink last = new RecordingSink("last", BEGIN);
+
+        try (ObservationFanOut fanOut = new ObservationFanOut(Arrays.asList(first, failing, last))) {
+            fanOut.upload(measures(1, 4));
+            fanOut.upload(measures(5, 8));
+            fanOut.uploadAhead(measure(BEGIN + 45 * MINUTE, 10.0, 0.0));
+
+            assertEquals(timestamps(1, 8), first.uploaded);
+            assertEquals(timestamps(1, 8), last.uploaded);
+            assertEquals(timestamps(1, 2), failing.uploaded);
+            assertEquals(timestamps(9, 9), last.uploadedAhead);
+            assertTrue(failing.uploadedAhead.isEmpty());
+            assertTrue(fanOut.isSuccessful(first));
+            assertFalse(fanOut.isSuccessful(failing));
+            assertFalse(fanOut.isSuccessful());
+            // the measures after the last upload of the failing target are still needed.
+            assertEquals(BEGIN + 10 * MINUTE, fanOut.getPreviousTimeStep());
+        }
+    }
+
+    @Test
+    public void failedUploadAheadIsUploadedInOrder() throws InterruptedException {
+        RecordingSink sink = new RecordingSink("site", BEGIN) {
+            @Override
+            public synchronized boolean uploadAhead(EncodedMeasure measure) {
+                throw new IllegalStateException("Target is down");
+            }
+        };
+
+        try (ObservationFanOut fanOut = new ObservationFanOut(Arrays.asList(sink))) {
+            fanOut.uploadAhead(measure(BEGIN + 20 * MINUTE, 10.0, 0.0));
+            fanOut.upload(measures(1, 4));
+
+            assertTrue(fanOut.isSuccessful());
+            assertEquals(timestamps(1, 4), sink.uploaded);
+        }
+    }
+
+    @Test
+    public void measuresAreEncodedOnceForAllTargets() throws InterruptedException {
+        List<List<EncodedMeasure>> received = new ArrayList<>();
+        List<ObservationSink> sinks = new ArrayList<>();
+        for (String name : Arrays.asList("wow", "wu")) {
+            sinks.add(new RecordingSink(name, BEGIN) {
+                @Override
+                public synchronized long upload(List<EncodedMeasure> measures) throws IOException {
+                    synchronized (received) {
+                        received.add(measures);
+                    }
+                    return super.upload(measures);
+                }
+            });
+        }
+
+        try (ObservationFanOut fanOut = new ObservationFanOut(sinks)) {
+            fanOut.upload(measures(1, 2));
+        }
+
+        assertEquals(2, received.size());
+        assertSame(received.get(0).get(0), received.get(1).get(0));
+    }
+
+    /**
+     * @return the measures from the first up to and including the last 5 minute step after BEGIN.
+     */
+    private static List<Observation> measures(int first, int last) {
+        List<Observation> measures = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            measures.add(measure(BEGIN + i * 5 * MINUTE, 10.0 + i, 0.0));
+        }
+        return measures;
+    }
+
+    private static List<Long> timestamps(int first, int last) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            timestamps.add(BEGIN + i * 5 * MINUTE);
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationRingTest {
+
+    private static final long BEGIN = 1_700_000_000_000L;
+
+    @Test
+    public void fullRingOverwritesTheOldestObservations() {
+        ObservationRing ring = new ObservationRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(measure(BEGIN + i * 5 * MINUTE, i, 0.0));
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList(BEGIN + 10 * MINUTE, BEGIN + 15 * MINUTE, BEGIN + 20 * MINUTE), timestamps(ring.range(Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertEquals(4.0, ring.latest().getTemperature(), 0.0);
+    }
+
+    @Test
+    public void rangeAcrossTheWraparoundIsSortedAndIncludesBothBounds() {
+        ObservationRing ring = new ObservationRing(4);
+        for (int i = 0; i < 7; i++) {
+            ring.add(measure(BEGIN + i * 5 * MINUTE, i, 0.0));
+        }
+
+        // the oldest observation is in the middle of the arrays.
+        assertEquals(Arrays.asList(BEGIN + 15 * MINUTE, BEGIN + 20 * MINUTE, BEGIN + 25 * MINUTE),
+                timestamps(ring.range(BEGIN + 12 * MINUTE, BEGIN + 25 * MINUTE)));
+        assertEquals(Arrays.asList(BEGIN + 20 * MINUTE), timestamps(ring.range(BEGIN + 20 * MINUTE, BEGIN + 20 * MINUTE)));
+        assertTrue(ring.range(BEGIN, BEGIN + 10 * MINUTE).isEmpty());
+        assertTrue(ring.range(BEGIN + 31 * MINUTE, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void observationsThatAreNotLaterAreIgnored() {
+        ObservationRing ring = new ObservationRing(3);
+        ring.add(Arrays.asList(measure(BEGIN, 10.0, 0.0), measure(BEGIN + 5 * MINUTE, 11.0, 0.0),
+                measure(BEGIN + 5 * MINUTE, 12.0, 0.0), measure(BEGIN, 13.0, 0.0)));
+
+        assertEquals(2, ring.size());
+        assertEquals(11.0, ring.latest().getTemperature(), 0.0);
+    }
+
+    @Test
+    public void allValuesAndMissingValuesAreKept() {
+        ObservationRing ring = new ObservationRing(1);
+        Observation observation = Observation.builder(BEGIN).temperature(10.0).humidity(80.0).pressure(1013.0).rain(0.2)
+                .rainLastHour(1.0).rainAccumulated(3.0).wind(4.0, 90.0, 7.0, 100.0).build();
+
+        assertNull(ring.latest());
+        ring.add(observation);
+        assertEquals(ObservationServer.appendObservation(new StringBuilder(), observation).toString(),
+                ObservationServer.appendObservation(new StringBuilder(), ring.latest()).toString());
+
+        ring.add(measure(BEGIN + 5 * MINUTE, 11.0, Double.NaN));
+        assertTrue(Double.isNaN(ring.latest().getRain()));
+        assertTrue(Double.isNaN(ring.latest().getHumidity()));
+    }
+
+    private static List<Long> timestamps(List<Observation> observations) {
+        List<Long> timestamps = new ArrayList<>();
+        for (Observation observation : observations) {
+            timestamps.add(observation.getTimestamp());
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,86 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationServerTest {
+
+    private static final long BEGIN = 1_700_000_000_000L;
+
+    private ObservationServer server;
+    private ObservationRing ring;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ObservationServer(0);
+        ring = new ObservationRing(10);
+        for (int i = 0; i < 3; i++) {
+            ring.add(measure(BEGIN + i * 5 * MINUTE, 10.0 + i, i == 2 ? Double.NaN : 0.2));
+        }
+        server.addStation("site 1", ring);
+        server.addStation("empty", new ObservationRing(1));
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void latestObservationLeavesOutValuesThatWereNotMeasured() throws IOException {
+        assertEquals("200 {\"timestamp\":" + (BEGIN + 10 * MINUTE) + ",\"temperature\":12.0}", get("/stations/site%201/latest"));
+        assertEquals("404 {\"error\":\"no observations\"}", get("/stations/empty/latest"));
+    }
+
+    @Test
+    public void rangeIncludesBothBounds() throws IOException {
+        assertEquals("200 [{\"timestamp\":" + BEGIN + ",\"temperature\":10.0,\"rain\":0.2},{\"timestamp\":" + (BEGIN + 5 * MINUTE) + ",\"temperature\":11.0,\"rain\":0.2}]",
+                get("/stations/site%201/range?to=" + (BEGIN + 5 * MINUTE)));
+        assertEquals("200 [{\"timestamp\":" + (BEGIN + 10 * MINUTE) + ",\"temperature\":12.0}]",
+                get("/stations/site%201/range?from=" + (BEGIN + 6 * MINUTE) + "&to=" + (BEGIN + 10 * MINUTE)));
+        assertEquals("200 []", get("/stations/empty/range"));
+    }
+
+    @Test
+    public void stationsAreListed() throws IOException {
+        String stations = get("/stations");
+
+        assertTrue(stations, stations.equals("200 [\"site 1\",\"empty\"]") || stations.equals("200 [\"empty\",\"site 1\"]"));
+    }
+
+    @Test
+    public void badRequestsAreAnsweredWithAnError() throws IOException {
+        assertEquals("400 {\"error\":\"from and to must be milliseconds\"}", get("/stations/site%201/range?from=yesterday"));
+        assertEquals("404 {\"error\":\"not found\"}", get("/stations/other/latest"));
+        assertEquals("404 {\"error\":\"not found\"}", get("/stations/site%201/oldest"));
+        assertEquals("404 {\"error\":\"not found\"}", get("/stations/site%201/latest/temperature"));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/stations").openConnection();
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * @return the response code and the body.
+     */
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        int code = connection.getResponseCode();
+        assertEquals("application/json; charset=utf-8", connection.getContentType());
+        try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return code + " " + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sink that remembers the timestamps of the measures uploaded to it, like a target that accepts every measure
+ * until it fails.
+ */
+class RecordingSink implements ObservationSink {
+
+    final List<Long> uploaded = new ArrayList<>();
+    final List<Long> uploadedAhead = new ArrayList<>();
+    // the upload of the first measure at or after this timestamp fails.
+    long failAt = Long.MAX_VALUE;
+    private final String name;
+    private long previousTimeStep;
+
+    RecordingSink(String name, long previousTimeStep) {
+        this.name = name;
+        this.previousTimeStep = previousTimeStep;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized long getPreviousTimeStep() {
+        return previousTimeStep;
+    }
+
+    @Override
+    public List<TimeRange> getRejected() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized long upload(List<EncodedMeasure> measures) throws IOException {
+        for (EncodedMeasure measure : measures) {
+            if (measure.getTimestamp() <= previousTimeStep) continue;
+            if (measure.getTimestamp() >= failAt) throw new IOException("Target of " + name + " is down");
+            uploaded.add(measure.getTimestamp());
+            previousTimeStep = measure.getTimestamp();
+        }
+        return previousTimeStep;
+    }
+
+    @Override
+    public synchronized boolean uploadAhead(EncodedMeasure measure) {
+        uploadedAhead.add(measure.getTimestamp());
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RejectedRangesTest {
+
+    @Test
+    public void nothingRejectedLeavesNoRange() {
+        RejectedRanges rejected = new RejectedRanges(100);
+        rejected.accepted(200);
+        rejected.accepted(300);
+
+        assertTrue(rejected.get().isEmpty());
+    }
+
+    @Test
+    public void rangeRunsBetweenTheAcceptedMeasuresAroundTheRejectedOnes() {
+        RejectedRanges rejected = new RejectedRanges(100);
+        rejected.accepted(200);
+        rejected.rejected();
+        rejected.rejected();
+        rejected.accepted(500);
+        rejected.accepted(600);
+
+        assertEquals(Collections.singletonList(new TimeRange(200, 500)), rejected.get());
+    }
+
+    @Test
+    public void rangeStartsAtThePreviousTimestepWhenTheFirstMeasureIsRejected() {
+        RejectedRanges rejected = new RejectedRanges(100);
+        rejected.rejected();
+        rejected.accepted(300);
+
+        assertEquals(Collections.singletonList(new TimeRange(100, 300)), rejected.get());
+    }
+
+    @Test
+    public void rangeWithoutAcceptedMeasureAfterItHasNoEnd() {
+        RejectedRanges rejected = new RejectedRanges(100);
+        rejected.accepted(200);
+        rejected.rejected();
+        rejected.accepted(300);
+        rejected.rejected();
+
+        assertEquals(Arrays.asList(new TimeRange(200, 300), new TimeRange(300, Long.MAX_VALUE)), rejected.get());
+    }
+}
@@ -0,0 +1,116 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest {
+
+    // a multiple of 10 minutes.
+    private static final long GRID = 1_000_000L * 10L * MINUTE;
+
+    @Test
+    public void aggregatesCompleteIntervalsStampedOnTheGrid() {
+        Resampler resampler = new Resampler(600);
+
+        List<Observation> result = resampler.add(Arrays.asList(
+                measure(GRID + MINUTE, 10.0, 0.2),
+                measure(GRID + 6 * MINUTE, 12.0, 0.3),
+                measure(GRID + 11 * MINUTE, 20.0, 0.0)));
+
+        assertEquals(1, result.size());
+        Observation aggregate = result.get(0);
+        assertEquals(GRID + 10 * MINUTE, aggregate.getTimestamp());
+        assertEquals(11.0, aggregate.getTemperature(), 1e-9);
+        assertEquals(0.5, aggregate.getRain(), 1e-9);
+    }
+
+    @Test
+    public void intervalIncludesItsEnd() {
+        Resampler resampler = new Resampler(600);
+
+        List<Observation> result = resampler.add(Arrays.asList(
+                measure(GRID + 10 * MINUTE, 10.0, Double.NaN),
+                measure(GRID + 10 * MINUTE + 1, 20.0, Double.NaN)));
+
+        assertEquals(1, result.size());
+        assertEquals(GRID + 10 * MINUTE, result.get(0).getTimestamp());
+        assertEquals(10.0, result.get(0).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void openIntervalIsOnlyFlushedOnceItEnded() {
+        Resampler resampler = new Resampler(600);
+        resampler.add(Collections.singletonList(measure(GRID + MINUTE, 10.0, Double.NaN)));
+
+        assertTrue(resampler.flush(GRID + 9 * MINUTE).isEmpty());
+
+        List<Observation> result = resampler.flush(GRID + 10 * MINUTE);
+        assertEquals(1, result.size());
+        assertEquals(GRID + 10 * MINUTE, result.get(0).getTimestamp());
+        assertTrue(resampler.flush(GRID + 20 * MINUTE).isEmpty());
+    }
+
+    @Test
+    public void intervalContinuesInTheNextSlice() {
+        Resampler resampler = new Resampler(600);
+
+        assertTrue(resampler.add(Collections.singletonList(measure(GRID + MINUTE, 10.0, Double.NaN))).isEmpty());
+        List<Observation> result = resampler.add(Arrays.asList(
+                measure(GRID + 6 * MINUTE, 14.0, Double.NaN),
+                measure(GRID + 11 * MINUTE, 20.0, Double.NaN)));
+
+        assertEquals(1, result.size());
+        assertEquals(12.0, result.get(0).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void resampleLeavesTheOpenIntervalAlone() {
+        Resampler resampler = new Resampler(600);
+        resampler.add(Collections.singletonList(measure(GRID + MINUTE, 10.0, Double.NaN)));
+
+        List<Observation> copy = resampler.resample(Arrays.asList(
+                measure(GRID + 11 * MINUTE, 20.0, Double.NaN),
+                measure(GRID + 16 * MINUTE, 22.0, Double.NaN)), GRID + 30 * MINUTE);
+
+        assertEquals(1, copy.size());
+        assertEquals(GRID + 20 * MINUTE, copy.get(0).getTimestamp());
+        assertEquals(21.0, copy.get(0).getTemperature(), 1e-9);
+        List<Observation> open = resampler.flush(GRID + 10 * MINUTE);
+        assertEquals(1, open.size());
+        assertEquals(10.0, open.get(0).getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void windDirectionIsTheDirectionOfTheAverageVector() {
+        Observation north = Observation.builder(GRID + MINUTE).wind(10.0, 350.0, 12.0, 340.0).build();
+        Observation east = Observation.builder(GRID + 2 * MINUTE).wind(10.0, 10.0, 15.0, 20.0).build();
+
+        Observation aggregate = Resampler.aggregate(Arrays.asList(north, east), GRID + 10 * MINUTE);
+
+        assertEquals(0.0, Math.min(aggregate.getWindAngle(), 360.0 - aggregate.getWindAngle()), 1e-6);
+        assertEquals(10.0, aggregate.getWindStrength(), 1e-9);
+        assertEquals(15.0, aggregate.getWindGustStrength(), 1e-9);
+        assertEquals(20.0, aggregate.getWindGustAngle(), 1e-9);
+    }
+
+    @Test
+    public void latestDerivedRainIsTaken() {
+        Observation first = measure(GRID + MINUTE, 10.0, 0.1).withRainLastHour(1.0).withRainAccumulated(2.0);
+        Observation second = measure(GRID + 6 * MINUTE, 10.0, 0.1).withRainLastHour(1.1);
+
+        Observation aggregate = Resampler.aggregate(Arrays.asList(first, second), GRID + 10 * MINUTE);
+
+        assertEquals(1.1, aggregate.getRainLastHour(), 1e-9);
+        assertEquals(2.0, aggregate.getRainAccumulated(), 1e-9);
+        assertTrue(Double.isNaN(aggregate.getHumidity()));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResponseBufferTest {
+
+    @Test
+    public void bodyOfUnknownLengthGrowsTheBuffer() throws IOException {
+        String body = body(100 * 1024);
+
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(stream(body), -1);
+
+        assertEquals(body.length(), buffer.size());
+        assertEquals(body, buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void bodyOfTheContentLengthIsReadIntoThePresizedBuffer() throws IOException {
+        String body = body(40 * 1024);
+
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(stream(body), body.length());
+
+        assertEquals(body, buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void bodyLongerThanTheContentLengthGrowsThePresizedBuffer() throws IOException {
+        String body = body(100 * 1024);
+
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(stream(body), 20 * 1024);
+
+        assertEquals(body.length(), buffer.size());
+        assertEquals(body, buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void nextBodyReplacesTheLongerPreviousOne() throws IOException {
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(stream(body(50 * 1024)), -1);
+
+        buffer.readFrom(stream("{\"status\":\"ok\"}"), -1);
+
+        assertEquals("{\"status\":\"ok\"}", buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void missingStreamIsAnEmptyBody() throws IOException {
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(stream("old"), -1).readFrom(null, -1);
+
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void readerDecodesTheCharset() throws IOException {
+        String body = "{\"place\":\"Zürich\"}";
+        ResponseBuffer buffer = new ResponseBuffer().readFrom(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)), -1);
+
+        try (BufferedReader reader = new BufferedReader(buffer.reader(StandardCharsets.ISO_8859_1))) {
+            assertEquals(body, reader.readLine());
+        }
+    }
+
+    private static String body(int length) {
+        StringBuilder body = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        return body.toString();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
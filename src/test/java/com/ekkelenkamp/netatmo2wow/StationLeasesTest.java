@@ -0,0 +1,128 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StationLeasesTest {
+
+    private static final long TTL = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // two nodes that share the lease directory.
+    private FileLeaseBackend backendA;
+    private FileLeaseBackend backendB;
+
+    @Before
+    public void createBackends() {
+        backendA = new FileLeaseBackend(folder.getRoot().toString());
+        backendB = new FileLeaseBackend(folder.getRoot().toString());
+    }
+
+    @Test
+    public void joiningNodeOnlyTakesTheStationsForWhichItIsPreferred() {
+        Set<String> two = new HashSet<>(Arrays.asList("a", "b"));
+        Set<String> three = new HashSet<>(Arrays.asList("a", "b", "c"));
+        int moved = 0;
+        for (int i = 0; i < 300; i++) {
+            String station = "station-" + i;
+            String before = StationLeases.preferredNode(station, two);
+            String after = StationLeases.preferredNode(station, three);
+            if (!after.equals(before)) {
+                assertEquals("c", after);
+                moved++;
+            }
+        }
+        // about a third of the stations move to the new node.
+        assertTrue(moved > 50 && moved < 150);
+    }
+
+    @Test
+    public void ownerHandsTheStationOverToTheNodeThatJoins() {
+        String station = stationPreferredBy("b");
+        StationLeases nodeA = new StationLeases(backendA, "a", StationLeases.DEFAULT_TTL_MILLIS);
+        StationLeases nodeB = new StationLeases(backendB, "b", StationLeases.DEFAULT_TTL_MILLIS);
+
+        StationLeases.Lease lease = nodeA.acquire(station);
+        assertNotNull(lease);
+        lease.close();
+
+        // b is preferred, but a still holds the lease.
+        assertNull(nodeB.acquire(station));
+        // the next run of a sees b and gives the station up.
+        assertNull(nodeA.acquire(station));
+        StationLeases.Lease taken = nodeB.acquire(station);
+        assertNotNull(taken);
+        taken.close();
+    }
+
+    @Test
+    public void leaseOfCrashedNodeIsTakenOverAfterItExpires() throws InterruptedException {
+        String station = stationPreferredBy("b");
+        StationLeases nodeA = new StationLeases(backendA, "a", TTL);
+        StationLeases nodeB = new StationLeases(backendB, "b", TTL);
+
+        // a stops renewing its lease and heartbeat without releasing them.
+        StationLeases.Lease crashed = nodeA.acquire(station);
+        assertNotNull(crashed);
+        crashed.close();
+        assertNull(nodeB.acquire(station));
+
+        Thread.sleep(TTL + 100);
+
+        assertTrue(crashed.isLost());
+        StationLeases.Lease taken = nodeB.acquire(station);
+        assertNotNull(taken);
+        assertEquals(Collections.singleton("b"), backendB.liveNodes());
+        taken.close();
+        // the lease of b is not expired, the restarted a cannot take it back.
+        assertFalse(backendA.tryAcquire(station, "a", TTL));
+    }
+
+    @Test
+    public void expiredAndUnreadableHeartbeatsAreNoLiveNodes() throws IOException, InterruptedException {
+        backendA.heartbeat("a", 1);
+        backendB.heartbeat("b", StationLeases.DEFAULT_TTL_MILLIS);
+        Files.write(folder.getRoot().toPath().resolve("node-c"), "c\nsoon\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.getRoot().toPath().resolve("node-d12345.tmp"), "d\n".getBytes(StandardCharsets.UTF_8));
+
+        Thread.sleep(10);
+
+        assertEquals(Collections.singleton("b"), backendA.liveNodes());
+    }
+
+    @Test
+    public void releaseOnlyGivesUpTheLeaseOfTheNode() {
+        assertTrue(backendA.tryAcquire("station", "a", StationLeases.DEFAULT_TTL_MILLIS));
+
+        backendB.release("station", "b");
+        assertFalse(backendB.tryAcquire("station", "b", StationLeases.DEFAULT_TTL_MILLIS));
+
+        backendA.release("station", "a");
+        assertTrue(backendB.tryAcquire("station", "b", StationLeases.DEFAULT_TTL_MILLIS));
+    }
+
+    private static String stationPreferredBy(String node) {
+        Set<String> nodes = new HashSet<>(Arrays.asList("a", "b"));
+        for (int i = 0; ; i++) {
+            if (StationLeases.preferredNode("station-" + i, nodes).equals(node)) return "station-" + i;
+        }
+    }
+}
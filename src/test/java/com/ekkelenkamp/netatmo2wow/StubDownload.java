@@ -0,0 +1,52 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.model.Device;
+import com.ekkelenkamp.netatmo2wow.model.Measures;
+import com.ekkelenkamp.netatmo2wow.model.Observation;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Download of a station that measures 10 degrees and 0.1 mm of rain every 5 minutes, without Netatmo.
+ */
+class StubDownload extends NetatmoDownload {
+
+    // the time slices downloaded, in seconds; an open ended slice ends at Long.MAX_VALUE.
+    final List<TimeRange> slices = Collections.synchronizedList(new ArrayList<>());
+    // measures after the end of a slice that are returned as well, like the module measures of Netatmo.
+    long overlapMillis;
+    // the download of a slice that starts at or after this time, in seconds, fails.
+    long failAt = Long.MAX_VALUE;
+
+    StubDownload() {
+        super(null, (NetatmoTokenFiles) null);
+    }
+
+    @Override
+    public Device connect(String clientId, String clientSecret) {
+        Device device = new Device();
+        device.setTimezone(ZoneId.of("UTC"));
+        return device;
+    }
+
+    @Override
+    public Double downloadAccumulatedRain(Device device, long dateBegin) {
+        return 0.0;
+    }
+
+    @Override
+    public List<Measures> downloadMeasures(Device device, long dateBegin, long dateEnd) {
+        if (dateBegin >= failAt) throw new IllegalStateException("Netatmo is down");
+        long end = dateEnd > 0 ? dateEnd * 1000 + overlapMillis : System.currentTimeMillis() + 1;
+        slices.add(new TimeRange(dateBegin, dateEnd > 0 ? dateEnd : Long.MAX_VALUE));
+        List<Measures> measures = new ArrayList<>();
+        long cadence = GapDetector.CADENCE_MILLIS;
+        for (long timestamp = Math.floorDiv(dateBegin * 1000 + cadence - 1, cadence) * cadence; timestamp < end; timestamp += cadence) {
+            measures.add(Measures.of(Observation.builder(timestamp).temperature(10.0).rain(0.1).build()));
+        }
+        return measures;
+    }
+}
@@ -0,0 +1,58 @@
+package com.ekkelenkamp.netatmo2wow;
+
+import com.ekkelenkamp.netatmo2wow.loadtest.MockNetatmoServer;
+import com.ekkelenkamp.netatmo2wow.model.EncodedMeasure;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ekkelenkamp.netatmo2wow.Fixtures.HOUR;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.MINUTE;
+import static com.ekkelenkamp.netatmo2wow.Fixtures.measure;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WowUploadTest {
+
+    private MockNetatmoServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new MockNetatmoServer(1, 1, 0, 0);
+        server.start(0, 2);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void backlogWithoutTimeLeftIsLeftAsGap() throws IOException {
+        long begin = System.currentTimeMillis() - HOUR;
+        WowUpload upload = new WowUpload(begin, server.getWowUrl(), "1", 1);
+        upload.setBackfillInterval(HOUR);
+        upload.setDeadline(Deadline.after(MINUTE));
+        List<EncodedMeasure> measures = EncodedMeasure.encode(Arrays.asList(
+                measure(begin + 5 * MINUTE, 10.0, 0.0), measure(begin + 10 * MINUTE, 11.0, 0.0),
+                measure(begin + 15 * MINUTE, 12.0, 0.0), measure(begin + 20 * MINUTE, 13.0, 0.0)));
+
+        assertTrue(upload.uploadAhead(measures.get(2)));
+        upload.upload(measures.subList(0, 2));
+
+        // the first measure of the backlog is uploaded, the next one would wait beyond the deadline.
+        assertEquals(begin + 5 * MINUTE, upload.getPreviousTimeStep());
+        assertEquals(Collections.singletonList(new TimeRange(begin + 5 * MINUTE, Long.MAX_VALUE)), upload.getRejected());
+
+        upload.upload(measures.subList(2, 4));
+
+        assertEquals(begin + 20 * MINUTE, upload.getPreviousTimeStep());
+        assertEquals(Collections.singletonList(new TimeRange(begin + 5 * MINUTE, begin + 15 * MINUTE)), upload.getRejected());
+        assertEquals(3, server.getUploads());
+    }
+}
@@ -0,0 +1,98 @@
+package com.ekkelenkamp.netatmo2wow.loadtest;
+
+import com.ekkelenkamp.netatmo2wow.MeasuresPipeline;
+import com.ekkelenkamp.netatmo2wow.NetatmoDownload;
+import com.ekkelenkamp.netatmo2wow.NetatmoHttpClientImpl;
+import com.ekkelenkamp.netatmo2wow.NetatmoTokenFiles;
+import com.ekkelenkamp.netatmo2wow.WowUpload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives NetatmoDownload and WowUpload against a MockNetatmoServer and reports the throughput.
+ * <p/>
+ * Usage: LoadHarness [stations] [modules per station] [latency millis] [error rate] [client threads] [timeperiod seconds] [slice seconds]
+ * <p/>
+ * Defaults: 50 stations, 3 modules, 20 ms latency, no errors, 8 client threads, a timeperiod of 7200 seconds
+ * and the default slice length of MeasuresPipeline.
+ * Run with -Dsun.net.http.retryPost=false to keep HttpURLConnection from silently repeating failed uploads.
+ */
+public class LoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        int stations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int modules = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        String timeperiod = args.length > 5 ? args[5] : "7200";
+        long slice = args.length > 6 ? Long.parseLong(args[6]) : MeasuresPipeline.DEFAULT_SLICE_SECONDS;
+
+        MockNetatmoServer server = new MockNetatmoServer(stations, modules, latency, errorRate);
+        server.start(0, Math.max(threads * 2, 4));
+        Path tokenRoot = Files.createTempDirectory("netatmo2wow-load");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicLong failedStations = new AtomicLong();
+        try {
+            List<NetatmoTokenFiles> tokenFiles = new ArrayList<>();
+            for (int i = 0; i < stations; i++) {
+                tokenFiles.add(createTokenFiles(tokenRoot, i));
+            }
+
+            NetatmoHttpClientImpl client = new NetatmoHttpClientImpl();
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < stations; i++) {
+                final int station = i;
+                futures.add(executor.submit(() -> {
+                    try {
+                        NetatmoDownload download = new NetatmoDownload(client, tokenFiles.get(station), server.getNetatmoUrl());
+                        WowUpload wow = new WowUpload(0, server.getWowUrl(), "" + (100000 + station), 1234);
+                        new MeasuresPipeline(download, Collections.singletonList(wow), slice, 2)
+                                .run("client-id", "client-secret", timeperiod);
+                    } catch (Exception e) {
+                        failedStations.incrementAndGet();
+                        System.err.println("station " + station + " failed: " + e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("stations=%d modules=%d latency=%dms errorRate=%.3f threads=%d timeperiod=%ss slice=%ds%n",
+                    stations, modules, latency, errorRate, threads, timeperiod, slice);
+            System.out.printf("elapsed: %.3f s%n", seconds);
+            System.out.printf("stations: %d (%d failed), %.1f stations/sec%n", stations, failedStations.get(), stations / seconds);
+            System.out.printf("uploads: %d, %.1f uploads/sec%n", server.getUploads(), server.getUploads() / seconds);
+            System.out.printf("netatmo requests: token=%d getstationsdata=%d getmeasure=%d injected errors=%d%n",
+                    server.getTokenRequests(), server.getStationRequests(), server.getMeasureRequests(), server.getInjectedErrors());
+            System.out.printf("netatmo response bytes: received=%d decompressed=%d%n", client.getReceivedBytes(), client.getDecompressedBytes());
+        } finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    /**
+     * Create the access and refresh token files of a station below the given directory.
+     */
+    static NetatmoTokenFiles createTokenFiles(Path root, int station) throws IOException {
+        Path dir = Files.createDirectories(root.resolve("station-" + station));
+        Files.write(dir.resolve("access.token"), MockNetatmoServer.accessToken(station).getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("refresh.token"), MockNetatmoServer.refreshToken(station).getBytes(StandardCharsets.UTF_8));
+        return new NetatmoTokenFiles(dir.toAbsolutePath() + File.separator);
+    }
+}
@@ -0,0 +1,362 @@
+package com.ekkelenkamp.netatmo2wow.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the Netatmo API and the WOW automatic reading upload.
+ * <p/>
+ * Every station has its own tokens: access token "access-&lt;n&gt;" and refresh token "refresh-&lt;n&gt;"
+ * for station n (0 based). Unknown access tokens get a response without body, which makes
+ * NetatmoDownload refresh its tokens. Measurements are generated on a 5 minute grid.
+ * Json responses are gzip compressed when the client accepts it.
+ * <p/>
+ * Implemented endpoints:
+ * <ul>
+ * <li>/oauth2/token</li>
+ * <li>/api/getstationsdata</li>
+ * <li>/api/getmeasure</li>
+ * <li>/automaticreading (WOW)</li>
+ * </ul>
+ */
+public class MockNetatmoServer {
+
+    private static final long TIME_STEP = 300;
+    private static final String[][] MODULE_DATA_TYPES = {
+            {"Temperature", "Humidity"},
+            {"Rain"},
+            {"Wind"}
+    };
+
+    private final int stations;
+    private final int modulesPerStation;
+    private final long latencyMillis;
+    private final double errorRate;
+
+    private final AtomicLong tokenRequests = new AtomicLong();
+    private final AtomicLong stationRequests = new AtomicLong();
+    private final AtomicLong measureRequests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param stations          number of stations, each with its own tokens.
+     * @param modulesPerStation number of modules per station, cycling through temperature/humidity, rain and wind modules.
+     * @param latencyMillis     delay before every response.
+     * @param errorRate         fraction (0..1) of the Netatmo API requests that fail with an internal server error.
+     */
+    public MockNetatmoServer(int stations, int modulesPerStation, long latencyMillis, double errorRate) {
+        this.stations = stations;
+        this.modulesPerStation = modulesPerStation;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Start listening on the loopback interface.
+     *
+     * @param port port to listen on, or 0 for a free port.
+     * @param threads number of request handling threads.
+     */
+    public void start(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/oauth2/token", this::token);
+        server.createContext("/api/getstationsdata", this::stationsData);
+        server.createContext("/api/getmeasure", this::measure);
+        server.createContext("/automaticreading", this::automaticReading);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getNetatmoUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getWowUrl() {
+        return getNetatmoUrl() + "/automaticreading?";
+    }
+
+    public static String accessToken(int station) {
+        return "access-" + station;
+    }
+
+    public static String refreshToken(int station) {
+        return "refresh-" + station;
+    }
+
+    public long getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+    public long getStationRequests() {
+        return stationRequests.get();
+    }
+
+    public long getMeasureRequests() {
+        return measureRequests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void token(HttpExchange exchange) throws IOException {
+        tokenRequests.incrementAndGet();
+        Map<String, String> params = readParams(exchange);
+        int station = stationOf(params.get("refresh_token"), "refresh-");
+        if (!delayAndMaybeFail(exchange)) return;
+        if (station < 0) {
+            respond(exchange, 400, error(10, "invalid refresh token"));
+            return;
+        }
+        JSONObject result = new JSONObject();
+        result.put("access_token", accessToken(station));
+        result.put("refresh_token", refreshToken(station));
+        result.put("expires_in", 10800L);
+        respond(exchange, 200, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stationsData(HttpExchange exchange) throws IOException {
+        stationRequests.incrementAndGet();
+        Map<String, String> params = readParams(exchange);
+        int station = stationOf(params.get("access_token"), "access-");
+        if (!delayAndMaybeFail(exchange)) return;
+        if (station < 0) {
+            respond(exchange, 403, error(2, "Invalid access token"));
+            return;
+        }
+        JSONArray modules = new JSONArray();
+        for (int m = 0; m < modulesPerStation; m++) {
+            JSONObject module = new JSONObject();
+            module.put("_id", moduleId(station, m));
+            JSONArray dataTypes = new JSONArray();
+            for (String dataType : MODULE_DATA_TYPES[m % MODULE_DATA_TYPES.length]) {
+                dataTypes.add(dataType);
+            }
+            module.put("data_type", dataTypes);
+            modules.add(module);
+        }
+        JSONObject device = new JSONObject();
+        device.put("_id", deviceId(station));
+        device.put("modules", modules);
+        JSONObject place = new JSONObject();
+        place.put("timezone", "Europe/Amsterdam");
+        device.put("place", place);
+        JSONArray devices = new JSONArray();
+        devices.add(device);
+        JSONObject body = new JSONObject();
+        body.put("devices", devices);
+        JSONObject result = new JSONObject();
+        result.put("body", body);
+        result.put("status", "ok");
+        respond(exchange, 200, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void measure(HttpExchange exchange) throws IOException {
+        measureRequests.incrementAndGet();
+        Map<String, String> params = readParams(exchange);
+        int station = stationOf(params.get("access_token"), "access-");
+        if (!delayAndMaybeFail(exchange)) return;
+        if (station < 0) {
+            respond(exchange, 403, error(2, "Invalid access token"));
+            return;
+        }
+        String type = params.get("type");
+        long now = System.currentTimeMillis() / 1000;
+        long begin = Long.parseLong(params.getOrDefault("date_begin", "" + (now - 3600)));
+        // modules report a few seconds after the main device, like the real stations.
+        long offset = params.get("module_id") == null ? 0 : 10;
+
+        JSONObject body = new JSONObject();
+        if ("last".equals(params.get("date_end"))) {
+            body.put("" + (now - now % TIME_STEP), values(type, now));
+        } else {
+            long end = params.get("date_end") == null ? now : Math.min(now, Long.parseLong(params.get("date_end")));
+            for (long t = begin - begin % TIME_STEP + offset; t <= end; t += TIME_STEP) {
+                if (t < begin) continue;
+                body.put("" + t, values(type, t));
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("body", body);
+        result.put("status", "ok");
+        respond(exchange, 200, result);
+    }
+
+    private void automaticReading(HttpExchange exchange) throws IOException {
+        Map<String, String> params = readParams(exchange);
+        if (!delay()) return;
+        if (params.get("siteid") == null || params.get("dateutc") == null) {
+            respond(exchange, 400, new byte[0]);
+            return;
+        }
+        uploads.incrementAndGet();
+        respond(exchange, 200, "OK".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray values(String type, long time) {
+        JSONArray values = new JSONArray();
+        double phase = (time % 86400) / 86400.0 * 2 * Math.PI;
+        for (String t : type.split(",")) {
+            switch (t) {
+                case "Pressure":
+                    values.add(1013.2 + 5 * Math.sin(phase));
+                    break;
+                case "Temperature":
+                    values.add(12.0 + 6 * Math.sin(phase));
+                    break;
+                case "Humidity":
+                    values.add(70L + Math.round(15 * Math.cos(phase)));
+                    break;
+                case "Rain":
+                    values.add(time % 3600 < 900 ? 0.101 : 0.0);
+                    break;
+                case "sum_rain":
+                    values.add(2.4);
+                    break;
+                case "WindStrength":
+                case "GustStrength":
+                    values.add(5L + (time / TIME_STEP) % 10);
+                    break;
+                case "WindAngle":
+                case "GustAngle":
+                    values.add((time / TIME_STEP * 15) % 360);
+                    break;
+                default:
+                    values.add(null);
+            }
+        }
+        return values;
+    }
+
+    private boolean delayAndMaybeFail(HttpExchange exchange) throws IOException {
+        if (!delay()) return false;
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            respond(exchange, 500, error(500, "Injected error"));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean delay() {
+        if (latencyMillis <= 0) return true;
+        try {
+            Thread.sleep(latencyMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private int stationOf(String token, String prefix) {
+        if (token == null || !token.startsWith(prefix)) return -1;
+        try {
+            int station = Integer.parseInt(token.substring(prefix.length()));
+            return station < stations ? station : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String deviceId(int station) {
+        return String.format("70:ee:50:%02x:%02x:00", (station >> 8) & 0xff, station & 0xff);
+    }
+
+    private static String moduleId(int station, int module) {
+        return String.format("02:00:00:%02x:%02x:%02x", (station >> 8) & 0xff, station & 0xff, module + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject error(long code, String message) {
+        JSONObject error = new JSONObject();
+        error.put("code", code);
+        error.put("message", message);
+        JSONObject result = new JSONObject();
+        result.put("error", error);
+        return result;
+    }
+
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        String form;
+        try (InputStream in = exchange.getRequestBody()) {
+            form = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            form = query + "&" + form;
+        }
+        Map<String, String> params = new HashMap<>();
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int code, JSONObject json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        byte[] body = json.toJSONString().getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            body = compressed.toByteArray();
+        }
+        respond(exchange, code, body);
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ekkelenkamp.netatmo2wow.loadtest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a command line of netatmo2wow (the jar or the native executable) against a MockNetatmoServer.
+ * <p/>
+ * The Netatmo/WOW urls, credentials, token location, site and time period options are appended to the given command.
+ * The exit code is the exit code of the command, or 1 when nothing was uploaded.
+ * Used for the class data sharing training run and to verify the native executable.
+ */
+public class MockServerRun {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: MockServerRun <command> [arguments]");
+            System.exit(2);
+        }
+        MockNetatmoServer server = new MockNetatmoServer(1, 3, 0, 0.0);
+        server.start(0, 4);
+        int exitCode;
+        try {
+            Path tokenRoot = Files.createTempDirectory("netatmo2wow-run");
+            LoadHarness.createTokenFiles(tokenRoot, 0);
+            Path prefs = Files.createDirectories(tokenRoot.resolve("prefs"));
+
+            List<String> command = new ArrayList<>(Arrays.asList(args));
+            // keep the last uploaded timestep of the run out of the preferences of the user.
+            // Both the java launcher and the native executable accept system properties as first arguments.
+            command.add(1, "-Djava.util.prefs.userRoot=" + prefs);
+            command.addAll(Arrays.asList(
+                    "--netatmo_url", server.getNetatmoUrl(),
+                    "--wow_url", server.getWowUrl(),
+                    "-c", "client-id",
+                    "-s", "client-secret",
+                    "-l", tokenRoot.resolve("station-0").toAbsolutePath().toString(),
+                    "-t", "7200",
+                    "-i", "100000",
+                    "-a", "1234"));
+            exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            System.out.printf("exit code: %d, uploads: %d%n", exitCode, server.getUploads());
+            if (exitCode == 0 && server.getUploads() == 0) {
+                exitCode = 1;
+            }
+        } finally {
+            server.stop();
+        }
+        System.exit(exitCode);
+    }
+}
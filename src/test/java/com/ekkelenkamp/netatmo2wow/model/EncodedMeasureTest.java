@@ -0,0 +1,48 @@
+package com.ekkelenkamp.netatmo2wow.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedMeasureTest {
+
+    // 2026-01-15 12:00:00 UTC.
+    private static final long TIMESTAMP = 1_768_478_400_000L;
+    private static final long STEP = 5L * 60L * 1000L;
+
+    @Test
+    public void measuresWithoutTemperatureAreNotUploaded() {
+        List<EncodedMeasure> encoded = EncodedMeasure.encode(Arrays.asList(
+                Observation.builder(TIMESTAMP).temperature(10.0).build(),
+                Observation.builder(TIMESTAMP + STEP).humidity(80.0).build(),
+                Observation.builder(TIMESTAMP + 2 * STEP).temperature(0.0).build()));
+
+        assertEquals(2, encoded.size());
+        assertEquals(TIMESTAMP, encoded.get(0).getTimestamp());
+        assertEquals("50", encoded.get(0).getParameters().get("tempf"));
+        assertEquals("32", encoded.get(1).getParameters().get("tempf"));
+        assertEquals("2026-01-15 12:10:00", encoded.get(1).getParameters().get("dateutc"));
+    }
+
+    @Test
+    public void measuresWithoutDailyRainGetTheDailyRainOfTheLastMeasure() {
+        Observation withoutDailyRain = Observation.builder(TIMESTAMP).temperature(10.0).build();
+        List<EncodedMeasure> encoded = EncodedMeasure.encode(Arrays.asList(withoutDailyRain,
+                Observation.builder(TIMESTAMP + STEP).temperature(10.0).rainAccumulated(25.4).build()));
+
+        assertEquals("1", encoded.get(0).getParameters().get("dailyrainin"));
+        assertEquals("1", encoded.get(1).getParameters().get("dailyrainin"));
+        assertTrue(Double.isNaN(withoutDailyRain.getRainAccumulated()));
+        assertFalse(EncodedMeasure.encode(Arrays.asList(withoutDailyRain)).get(0).getParameters().containsKey("dailyrainin"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void parametersCannotBeChangedByATarget() {
+        EncodedMeasure.encode(Observation.builder(TIMESTAMP).temperature(10.0).build()).getParameters().put("tempf", "0");
+    }
+}
@@ -0,0 +1,117 @@
+package com.ekkelenkamp.netatmo2wow.model;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationTest {
+
+    // 2026-01-15 12:34:56 UTC.
+    private static final long TIMESTAMP = 1_768_480_496_000L;
+
+    @Test
+    public void formatRoundsToTwoDecimalsWithoutTrailingZeros() {
+        assertEquals("0", Observation.format(0.0));
+        assertEquals("12", Observation.format(12.0));
+        assertEquals("12.5", Observation.format(12.5));
+        assertEquals("12.35", Observation.format(12.345678));
+        assertEquals("-3.21", Observation.format(-3.214));
+        assertEquals("1000000", Observation.format(1_000_000.0));
+    }
+
+    @Test
+    public void formatGivesZeroInsteadOfNegativeZero() {
+        assertEquals("0", Observation.format(-0.001));
+        assertEquals("0", Observation.format(-0.0));
+    }
+
+    @Test
+    public void formatMatchesDecimalFormat() {
+        DecimalFormat decimalFormat = new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            double value = (random.nextDouble() - 0.5) * 2000.0;
+            if (Math.abs(value) < 0.005) continue;
+            assertEquals(decimalFormat.format(value), Observation.format(value));
+        }
+        // halves are rounded to even, on the exact value of the double.
+        assertEquals(decimalFormat.format(0.125), Observation.format(0.125));
+        assertEquals(decimalFormat.format(0.375), Observation.format(0.375));
+        assertEquals(decimalFormat.format(2.675), Observation.format(2.675));
+    }
+
+    @Test
+    public void wowParametersAreConvertedToImperialUnits() {
+        Observation observation = Observation.builder(TIMESTAMP)
+                .temperature(20.0)
+                .humidity(55.0)
+                .pressure(1013.25)
+                .rainLastHour(25.4)
+                .rainAccumulated(12.7)
+                .wind(16.09, 90.0, 32.18, 180.0)
+                .build();
+
+        Map<String, String> parameters = observation.getWowParameters();
+
+        assertEquals("68", parameters.get("tempf"));
+        assertEquals("55.0", parameters.get("humidity"));
+        assertEquals("29.92", parameters.get("baromin"));
+        assertEquals("1", parameters.get("rainin"));
+        assertEquals("0.5", parameters.get("dailyrainin"));
+        assertEquals("10", parameters.get("windspeedmph"));
+        assertEquals("90", parameters.get("winddir"));
+        assertEquals("20", parameters.get("windgustmph"));
+        assertEquals("180", parameters.get("windgustdir"));
+        assertEquals("2026-01-15 12:34:56", parameters.get("dateutc"));
+    }
+
+    @Test
+    public void missingValuesAreLeftOut() {
+        Map<String, String> parameters = Observation.builder(TIMESTAMP).temperature(0.0).build().getWowParameters();
+
+        assertEquals(2, parameters.size());
+        assertEquals("32", parameters.get("tempf"));
+        assertFalse(parameters.containsKey("rainin"));
+        assertTrue(parameters.containsKey("dateutc"));
+    }
+
+    @Test
+    public void mergeTakesMissingValuesAndPrefersTheNewest() {
+        Observation indoor = Observation.builder(TIMESTAMP).temperature(21.0).pressure(1010.0).build();
+        Observation outdoor = Observation.builder(TIMESTAMP + 1000).temperature(5.0).humidity(80.0).build();
+
+        Observation merged = indoor.merge(outdoor);
+
+        assertEquals(TIMESTAMP, merged.getTimestamp());
+        assertEquals(5.0, merged.getTemperature(), 1e-9);
+        assertEquals(80.0, merged.getHumidity(), 1e-9);
+        assertEquals(1010.0, merged.getPressure(), 1e-9);
+        assertTrue(Double.isNaN(merged.getRain()));
+        assertEquals(21.0, indoor.getTemperature(), 1e-9);
+    }
+
+    @Test
+    public void mergeTakesTheWindAndDerivedRainOfTheOtherModules() {
+        Observation station = Observation.builder(TIMESTAMP).pressure(1010.0).build();
+        Observation wind = Observation.builder(TIMESTAMP + 1000).wind(12.0, 270.0, 20.0, 260.0).build();
+        Observation rain = Observation.builder(TIMESTAMP + 2000).rain(0.2).rainLastHour(1.5).rainAccumulated(4.0).build();
+
+        Observation merged = station.merge(wind).merge(rain);
+
+        assertEquals(12.0, merged.getWindStrength(), 1e-9);
+        assertEquals(270.0, merged.getWindAngle(), 1e-9);
+        assertEquals(20.0, merged.getWindGustStrength(), 1e-9);
+        assertEquals(260.0, merged.getWindGustAngle(), 1e-9);
+        assertEquals(0.2, merged.getRain(), 1e-9);
+        assertEquals(1.5, merged.getRainLastHour(), 1e-9);
+        assertEquals(4.0, merged.getRainAccumulated(), 1e-9);
+    }
+}